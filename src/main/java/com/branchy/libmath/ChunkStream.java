@@ -0,0 +1,240 @@
+package main.java.com.branchy.libmath;
+
+import main.java.com.branchy.libmp3.SampleSource;
+
+/** Pulls a song's overlapping chunks of samples from a streaming source, a block of chunks at a time.
+ * <p>
+ * Chunk i is the chunk_size samples from sample number i * hop. A chunk
+ * starts every hop samples through the whole chunks' worth of data, plus
+ * one more, see NumChunks(). The last ones run off the end of the data
+ * and are padded with zeroes. PowerSpectrumWaterfall and
+ * NoteEnergyAnalyzer both work through a song this way, so their chunks
+ * line up.
+ * <p>
+ * Each chunk can be read as a longer frame centered on it, for an
+ * analysis that looks further either side of the chunk than the chunk
+ * itself. Before the start of the song is padded with zeroes too.
+ * <p>
+ * Only the samples for one block of chunks are held at a time, so memory
+ * does not grow with the length of the song.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-17
+ */
+
+public class ChunkStream {
+
+    private SampleSource source;
+    private int chunk_size;
+    private int hop;
+    private int block_chunks;
+
+    /**
+     * Number of samples in a frame, and how many of them come before the
+     * chunk's first sample
+     */
+    private int frame_size;
+    private int lead;
+
+    /**
+     * The samples for the current block. The song is taken to start with
+     * lead zeroes, so frame i starts at i * hop, and block[0] is that
+     * padded song's sample number base. Filled samples are valid.
+     */
+    private short [] block;
+    private int base;
+    private int filled;
+
+    /**
+     * The current block is count chunks from chunk first
+     */
+    private int first;
+    private int count;
+
+    /**
+     * Whether the source has run out, and whether the last block has been handed out
+     */
+    private boolean done;
+    private boolean last;
+    private int num_chunks;
+
+    /**
+     * Number of chunks for some data, for both the streaming and the
+     * whole array paths.
+     *
+     * @param length        Number of samples of data
+     * @param chunk_size    Number of samples in a chunk
+     * @param hop           Number of samples from the start of one chunk to the next
+     * @return              Number of chunks
+     */
+    public static int NumChunks(int length, int chunk_size, int hop)
+    {
+        return (int)((((long)(length / chunk_size)) * chunk_size) / hop) + 1;
+    }
+
+    /**
+     * @param source_in          Source of the samples
+     * @param chunk_size_in      Number of samples in a chunk
+     * @param hop_in             Number of samples from the start of one chunk to the next, from 1 to the chunk size
+     * @param block_chunks_in    Number of chunks in a block, but the last
+     */
+    public ChunkStream(SampleSource source_in, int chunk_size_in, int hop_in, int block_chunks_in)
+    {
+        this(source_in, chunk_size_in, hop_in, block_chunks_in, chunk_size_in);
+    }
+
+    /**
+     * @param source_in          Source of the samples
+     * @param chunk_size_in      Number of samples in a chunk
+     * @param hop_in             Number of samples from the start of one chunk to the next, from 1 to the chunk size
+     * @param block_chunks_in    Number of chunks in a block, but the last
+     * @param frame_size_in      Number of samples in the frame centered on each chunk, at least the chunk size
+     */
+    public ChunkStream(SampleSource source_in, int chunk_size_in, int hop_in, int block_chunks_in, int frame_size_in)
+    {
+        if (frame_size_in < chunk_size_in)
+        {
+            throw new IllegalArgumentException("Frames must be at least as long as the chunks.");
+        }
+        source = source_in;
+        chunk_size = chunk_size_in;
+        hop = hop_in;
+        block_chunks = block_chunks_in;
+        frame_size = frame_size_in;
+        lead = (frame_size - chunk_size) / 2;
+        block = new short[((block_chunks - 1) * hop) + frame_size];
+        base = 0;
+        // The zeroes before the song
+        filled = lead;
+        first = 0;
+        count = 0;
+        done = false;
+        last = false;
+        num_chunks = -1;
+    }
+
+    /**
+     * Move on to the next block, reading the samples it needs. The
+     * samples the next chunks still need are kept from the block before.
+     * The last block holds however many chunks are left, which once the
+     * song's length is known can be more or fewer than a block's worth.
+     * Everything those chunks still need is in it.
+     *
+     * @return    False if there are no more chunks
+     */
+    public boolean Next()
+    {
+        if (last)
+        {
+            return false;
+        }
+        if (count > 0)
+        {
+            int used = count * hop;
+            System.arraycopy(block, used, block, 0, filled - used);
+            base += used;
+            filled -= used;
+            first += count;
+        }
+        while (!done && filled < block.length)
+        {
+            int n = source.read(block, filled, block.length - filled);
+            if (n < 0)
+            {
+                done = true;
+            } else {
+                filled += n;
+            }
+        }
+
+        count = block_chunks;
+        if (done)
+        {
+            // Same chunk count as the whole array, now that the length is known
+            num_chunks = NumChunks((base + filled) - lead, chunk_size, hop);
+            count = num_chunks - first;
+            last = true;
+        }
+        return count > 0;
+    }
+
+    /**
+     * @return    The samples for the current block. Sample number Base() is at index 0,
+     *            and the frame of chunk i starts at sample number (i * hop) - Lead().
+     */
+    public short [] Block()
+    {
+        return block;
+    }
+
+    /**
+     * @return    Sample number of Block()[0]. Negative before the song starts.
+     */
+    public int Base()
+    {
+        return base - lead;
+    }
+
+    /**
+     * @return    Number of samples in a frame before the first sample of its chunk
+     */
+    public int Lead()
+    {
+        return lead;
+    }
+
+    /**
+     * @return    Number of samples in Block(). Any past that are zero.
+     */
+    public int Valid()
+    {
+        return filled;
+    }
+
+    /**
+     * @return    First chunk in the current block
+     */
+    public int First()
+    {
+        return first;
+    }
+
+    /**
+     * @return    Number of chunks in the current block
+     */
+    public int Count()
+    {
+        return count;
+    }
+
+    /**
+     * @return    Number of chunks in the whole song, once Next() has returned false, or -1 before
+     */
+    public int NumChunks()
+    {
+        return num_chunks;
+    }
+
+    /**
+     * Copy the samples of one chunk's frame in the current block, padded
+     * with zeroes outside the data.
+     *
+     * @param i      Chunk number, from First() to First() + Count() - 1
+     * @param out    Where its frame's samples go
+     */
+    public void CopyChunk(int i, double [] out)
+    {
+        int start = (i * hop) - base;
+        int have = Math.max(0, Math.min(frame_size, filled - start));
+        for (int k = 0; k < have; k++)
+        {
+            out[k] = block[start + k];
+        }
+        for (int k = have; k < frame_size; k++)
+        {
+            out[k] = 0.0;
+        }
+    }
+
+}
@@ -0,0 +1,380 @@
+package main.java.com.branchy.libmath;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Turns the half spectrum of one frame into constant-Q log spectra.
+ * <p>
+ * Each log frequency bin gets its own Hann windowed complex exponential
+ * at the bin's center frequency, q_factor periods long. Its inner
+ * product with the frame is the bin's value. Long windows for the bass
+ * and short ones for the treble give every bin about the same
+ * resolution relative to its frequency, and every bin a value of its
+ * own: nothing is empty and back-filled.
+ * <p>
+ * The bass windows are longer than a chunk: 34 periods of 55 Hz is 6815
+ * samples at 11025 Hz. So the frame is not the chunk but the next power
+ * of two that holds the longest window, see FrameSize(), centered on the
+ * chunk, and every window is centered in the frame. Cutting the windows
+ * down to the chunk instead would leave the bass with the chunk's own
+ * resolution, 5.4 Hz for 2048 samples, wider than the semitone between
+ * 55 and 58 Hz. The cost is the longer frame: at those settings an
+ * 8192 point transform instead of 2048, and four times the weights, as
+ * a short treble window's spectrum spreads over four times as many of
+ * the finer FFT bins. That's about two and a half times the time per
+ * chunk. Decimating the song an octave at a time and giving each
+ * octave's windows its own rate would keep both down, but needs a
+ * filtered copy of the song per octave, and isn't done.
+ * <p>
+ * The inner products are done on the frame's spectrum, by Parseval's
+ * theorem. Each window's spectrum is worked out once, up front, and
+ * is nearly zero away from its center frequency. Only the run of FFT
+ * bins around the center is kept, so a log bin costs a few dozen
+ * multiplies per chunk, however many log bins there are
+ * (Brown and Puckette, "An efficient algorithm for the calculation of
+ * a constant Q transform", 1992).
+ * <p>
+ * Values are scaled so a sinusoid at a bin's center frequency has the
+ * same magnitude it has in the FFT of a chunk, and go through the same
+ * log10(magnitude + 2) as FftEngine.LogMagnitude(), so the same
+ * thresholds work on both.
+ * <p>
+ * Working out the kernels takes a good fraction of a second, so they're
+ * kept for reuse by every waterfall with the same settings.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+class ConstantQKernel {
+
+    /**
+     * Window spectrum values below this fraction of the window's peak are dropped
+     */
+    private static double kernelThreshold = 0.0054;
+
+    /**
+     * Kernels already worked out, by their settings
+     */
+    private static final ConcurrentHashMap<Settings, ConstantQKernel> kernels = new ConcurrentHashMap<Settings, ConstantQKernel>();
+
+    /**
+     * The settings a kernel is worked out for, to look it up by
+     */
+    private static final class Settings {
+        final int chunk_size;
+        final int frame_size;
+        final double fs;
+        final double freq_min;
+        final double freq_max;
+        final int num_bins;
+        final double q_factor;
+
+        Settings(int chunk_size_in, int frame_size_in, double fs_in, double freq_min_in, double freq_max_in, int num_bins_in, double q_factor_in)
+        {
+            chunk_size = chunk_size_in;
+            frame_size = frame_size_in;
+            fs = fs_in;
+            freq_min = freq_min_in;
+            freq_max = freq_max_in;
+            num_bins = num_bins_in;
+            q_factor = q_factor_in;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Settings))
+            {
+                return false;
+            }
+            Settings other = (Settings)o;
+            return chunk_size == other.chunk_size
+                    && frame_size == other.frame_size
+                    && Double.compare(fs, other.fs) == 0
+                    && Double.compare(freq_min, other.freq_min) == 0
+                    && Double.compare(freq_max, other.freq_max) == 0
+                    && num_bins == other.num_bins
+                    && Double.compare(q_factor, other.q_factor) == 0;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int h = chunk_size;
+            h = (31 * h) + frame_size;
+            h = (31 * h) + Double.hashCode(fs);
+            h = (31 * h) + Double.hashCode(freq_min);
+            h = (31 * h) + Double.hashCode(freq_max);
+            h = (31 * h) + num_bins;
+            h = (31 * h) + Double.hashCode(q_factor);
+            return h;
+        }
+    }
+
+    /**
+     * Number of log bins
+     */
+    private int bins;
+
+    /**
+     * Log bin k uses FFT bins first[k] up to, not including, first[k] + (start[k + 1] - start[k]).
+     * Their weights are at weight_re[start[k]] and weight_im[start[k]] on.
+     */
+    private int [] first;
+    private int [] start;
+    private double [] weight_re;
+    private double [] weight_im;
+
+    /**
+     * Number of samples in the frame the kernels for some settings work on:
+     * the chunk, or the next power of two that holds the longest window,
+     * the one for the lowest log bin.
+     *
+     * @param chunk_size    Number of samples in a chunk. A power of two.
+     * @param fs            Sampling frequency, in Hertz
+     * @param freq_min      Bottom of the log frequency scale, in Hertz
+     * @param freq_max      Top of the log frequency scale, in Hertz. Below fs / 2.
+     * @param num_bins      Number of log bins
+     * @param q_factor      Length of a window in periods of its center frequency
+     * @return              Number of samples in a frame. A power of two.
+     */
+    static int FrameSize(int chunk_size, double fs, double freq_min, double freq_max, int num_bins, double q_factor)
+    {
+        double [] centers = Centers(freq_min, freq_max, num_bins);
+        long longest = WindowLength(fs, centers[0], q_factor);
+        if (longest > (1 << 30))
+        {
+            throw new IllegalArgumentException("Constant-Q windows are too long for the minimum frequency.");
+        }
+        int frame_size = chunk_size;
+        while (frame_size < longest)
+        {
+            frame_size *= 2;
+        }
+        return frame_size;
+    }
+
+    /**
+     * The log bins are those of PowerSpectrumWaterfall: evenly spaced in
+     * log frequency from freq_min to freq_max. Each window is centered on
+     * the middle of its bin.
+     *
+     * @param chunk_size    Number of samples in a chunk. A power of two.
+     * @param frame_size    Number of samples in a frame, from FrameSize()
+     * @param fs            Sampling frequency, in Hertz
+     * @param freq_min      Bottom of the log frequency scale, in Hertz
+     * @param freq_max      Top of the log frequency scale, in Hertz. Below fs / 2.
+     * @param num_bins      Number of log bins
+     * @param q_factor      Length of a window in periods of its center frequency
+     * @return              The kernels for those settings
+     */
+    static ConstantQKernel For(int chunk_size, int frame_size, double fs, double freq_min, double freq_max, int num_bins, double q_factor)
+    {
+        Settings key = new Settings(chunk_size, frame_size, fs, freq_min, freq_max, num_bins, q_factor);
+        ConstantQKernel kernel = kernels.get(key);
+        if (kernel == null)
+        {
+            double [] centers = Centers(freq_min, freq_max, num_bins);
+            kernel = new ConstantQKernel(FftEngines.Default(), chunk_size, frame_size, fs, centers, q_factor);
+            kernels.putIfAbsent(key, kernel);
+        }
+        return kernel;
+    }
+
+    /**
+     * @return    Center frequency of each log bin, in Hertz
+     */
+    private static double [] Centers(double freq_min, double freq_max, int num_bins)
+    {
+        double min_freq_log = Math.log10(freq_min);
+        double delta = (Math.log10(freq_max) - min_freq_log) / num_bins;
+        double [] centers = new double[num_bins];
+        for (int k = 0; k < num_bins; k++)
+        {
+            centers[k] = Math.pow(10, min_freq_log + ((k + 0.5) * delta));
+        }
+        return centers;
+    }
+
+    /**
+     * @return    Number of samples in the window for a center frequency
+     */
+    private static long WindowLength(double fs, double center, double q_factor)
+    {
+        return Math.max(Math.round((q_factor * fs) / center), 4);
+    }
+
+    /**
+     * @param engine        Engine for transforming the windows
+     * @param chunk_size    Number of samples in a chunk. A power of two. Sets the scale of the values.
+     * @param frame_size    Number of samples in a frame. A power of two, and at least as long as every window.
+     * @param fs            Sampling frequency, in Hertz
+     * @param centers       Center frequency of each log bin, in Hertz. All below fs / 2.
+     * @param q_factor      Length of a window in periods of its center frequency
+     */
+    ConstantQKernel(FftEngine engine, int chunk_size, int frame_size, double fs, double [] centers, double q_factor)
+    {
+        bins = centers.length;
+        int half = frame_size / 2;
+        first = new int[bins];
+        start = new int[bins + 1];
+        double [] re = new double[bins * 16];
+        double [] im = new double[bins * 16];
+        double [] work = new double[2 * frame_size];
+        int used = 0;
+        for (int k = 0; k < bins; k++)
+        {
+            if (centers[k] <= 0.0 || centers[k] >= fs / 2.0)
+            {
+                throw new IllegalArgumentException("Constant-Q frequencies must be between zero and half the sampling frequency.");
+            }
+            long full_length = WindowLength(fs, centers[k], q_factor);
+            if (full_length > frame_size)
+            {
+                throw new IllegalArgumentException("Constant-Q windows must fit in the frame.");
+            }
+            int length = (int)full_length;
+            int begin = (frame_size - length) / 2;
+            double omega = (2.0 * Math.PI * centers[k]) / fs;
+
+            // Window centered in the frame, scaled so a full scale sinusoid
+            // comes out at chunk_size / 2 like it does in a chunk's FFT
+            double sum = 0.0;
+            for (int m = 0; m < length; m++)
+            {
+                sum += 0.5 - (0.5 * Math.cos((2.0 * Math.PI * m) / (length - 1)));
+            }
+            Arrays.fill(work, 0.0);
+            for (int m = 0; m < length; m++)
+            {
+                double w = (0.5 - (0.5 * Math.cos((2.0 * Math.PI * m) / (length - 1)))) * (chunk_size / sum);
+                int n = begin + m;
+                work[2 * n] = w * Math.cos(omega * n);
+                work[(2 * n) + 1] = w * Math.sin(omega * n);
+            }
+            // The forward transform adds up x[n] exp(+i 2 pi j n / N), so the inverse
+            // one gives the weights for picking out the exp(+i omega n) component
+            engine.ComplexInPlace(work, 2 * frame_size, FastFourierTransform.INVERSE_TRANSFORM);
+
+            double peak = 0.0;
+            for (int j = 0; j <= half; j++)
+            {
+                peak = Math.max(peak, Math.hypot(work[2 * j], work[(2 * j) + 1]));
+            }
+            int lo = -1;
+            int hi = -1;
+            for (int j = 0; j <= half; j++)
+            {
+                if (Math.hypot(work[2 * j], work[(2 * j) + 1]) >= kernelThreshold * peak)
+                {
+                    if (lo < 0)
+                    {
+                        lo = j;
+                    }
+                    hi = j;
+                }
+            }
+
+            if (used + (hi - lo + 1) > re.length)
+            {
+                int size = Math.max(2 * re.length, used + (hi - lo + 1));
+                re = Arrays.copyOf(re, size);
+                im = Arrays.copyOf(im, size);
+            }
+            first[k] = lo;
+            start[k] = used;
+            // Parseval: the sum over n is 1 / N times the sum over the spectrum
+            for (int j = lo; j <= hi; j++)
+            {
+                re[used] = work[2 * j] / frame_size;
+                im[used] = work[(2 * j) + 1] / frame_size;
+                used++;
+            }
+        }
+        start[bins] = used;
+        weight_re = Arrays.copyOf(re, used);
+        weight_im = Arrays.copyOf(im, used);
+    }
+
+    /**
+     * @return    Number of weights kept, over all the log bins
+     */
+    int NonZeros()
+    {
+        return weight_re.length;
+    }
+
+    /**
+     * @return    Lowest FFT bin any of the log bins uses
+     */
+    int LowestBin()
+    {
+        int lowest = Integer.MAX_VALUE;
+        for (int k = 0; k < bins; k++)
+        {
+            lowest = Math.min(lowest, first[k]);
+        }
+        return lowest;
+    }
+
+    /**
+     * @return    Highest FFT bin any of the log bins uses
+     */
+    int HighestBin()
+    {
+        int highest = -1;
+        for (int k = 0; k < bins; k++)
+        {
+            highest = Math.max(highest, (first[k] + (start[k + 1] - start[k])) - 1);
+        }
+        return highest;
+    }
+
+    /**
+     * @param spectrum    Half spectrum of a frame, as from FftEngine.RealInPlace()
+     * @param offset      Where the half spectrum starts
+     * @param out         Where the log spectra go, at least as long as the number of log bins
+     */
+    void Apply(double [] spectrum, int offset, double [] out)
+    {
+        for (int k = 0; k < bins; k++)
+        {
+            double real = 0.0;
+            double imag = 0.0;
+            int s = offset + (2 * first[k]);
+            for (int w = start[k]; w < start[k + 1]; w++, s += 2)
+            {
+                real += (spectrum[s] * weight_re[w]) - (spectrum[s + 1] * weight_im[w]);
+                imag += (spectrum[s] * weight_im[w]) + (spectrum[s + 1] * weight_re[w]);
+            }
+            out[k] = Math.log10(Math.sqrt((real * real) + (imag * imag)) + 2);
+        }
+    }
+
+    /**
+     * Same as Apply() above, for a half spectrum from FloatFftEngine.
+     * Adds up in double.
+     *
+     * @param spectrum    Half spectrum of a frame
+     * @param offset      Where the half spectrum starts
+     * @param out         Where the log spectra go, at least as long as the number of log bins
+     */
+    void Apply(float [] spectrum, int offset, double [] out)
+    {
+        for (int k = 0; k < bins; k++)
+        {
+            double real = 0.0;
+            double imag = 0.0;
+            int s = offset + (2 * first[k]);
+            for (int w = start[k]; w < start[k + 1]; w++, s += 2)
+            {
+                real += (spectrum[s] * weight_re[w]) - (spectrum[s + 1] * weight_im[w]);
+                imag += (spectrum[s] * weight_im[w]) + (spectrum[s + 1] * weight_re[w]);
+            }
+            out[k] = Math.log10(Math.sqrt((real * real) + (imag * imag)) + 2);
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+package main.java.com.branchy.libmath;
+
+import java.util.Arrays;
+
+import main.java.com.branchy.libmp3.SampleSource;
+
+/** Low pass filters and downsamples a stream of samples.
+ * <p>
+ * Sits between a SampleSource and PowerSpectrumWaterfall when only low
+ * frequencies are of interest. Downsampling by a factor M cuts the FFT
+ * size needed for the same frequency resolution, and the number of
+ * samples held, by M.
+ * <p>
+ * The anti-alias filter is a Blackman windowed sinc, cut off at the output
+ * Nyquist frequency. Only every Mth output is calculated, which is the
+ * polyphase form of the filter: each output only touches the taps it needs.
+ * The filter is centered on its output sample, so there is no delay.
+ * Anything that aliases lands between freq_max and the output Nyquist
+ * frequency, so the filter only has to be sharp enough to protect the
+ * band below freq_max.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class Decimator implements SampleSource {
+    /**
+     * The output rate must be at least this many times freq_max,
+     * so the filter's transition band is wide enough to stay short.
+     */
+    private static double minOversampling = 2.5;
+
+    /**
+     * Transition width of a Blackman window, in units of sampling frequency / taps
+     */
+    private static final double blackmanTransition = 5.5;
+
+    /**
+     * Number of input samples pulled from the source at a time
+     */
+    private static int blockSize = 4096;
+
+    /**
+     * Upstream source
+     */
+    private SampleSource source;
+
+    /**
+     * Downsampling factor
+     */
+    private int factor;
+
+    /**
+     * Filter taps, 2 * half_length + 1 of them, centered on the output sample
+     */
+    private double [] taps;
+    private int half_length;
+
+    /**
+     * Input samples with absolute indices [buf_start, buf_end), starting at buf[0].
+     * Indices before zero and past the end of the source read as zero.
+     */
+    private double [] buf;
+    private long buf_start;
+    private long buf_end;
+    private short [] scratch;
+
+    /**
+     * True once the upstream source is exhausted, and its total length
+     */
+    private boolean eof;
+    private long total;
+
+    /**
+     * Index of the next output sample
+     */
+    private long next;
+
+    /**
+     * Pick the largest power of two downsampling factor that keeps freq_max
+     * comfortably below the output Nyquist frequency and divides the
+     * sampling frequency evenly, so the output rate is exact.
+     *
+     * @param sampling_frequency    Input sampling frequency in Hertz
+     * @param freq_max              Highest frequency of interest in Hertz
+     * @return                      The factor, 1 if no downsampling is possible
+     */
+    public static int ChooseFactor(int sampling_frequency, double freq_max)
+    {
+        int m = 1;
+        while (sampling_frequency % (2 * m) == 0
+                && sampling_frequency / (2.0 * m) >= minOversampling * freq_max)
+        {
+            m *= 2;
+        }
+        return m;
+    }
+
+    /**
+     * @param source_in    Upstream source of samples
+     * @param factor_in    Downsampling factor. 1 passes samples through untouched.
+     * @param freq_max     Highest frequency of interest in Hertz. Must be below half the output rate.
+     */
+    public Decimator(SampleSource source_in, int factor_in, double freq_max)
+    {
+        source = source_in;
+        factor = factor_in;
+        if (factor < 1)
+        {
+            throw new IllegalArgumentException("Downsampling factor must be at least one.");
+        }
+        double fs = source.sampleFrequency();
+        double nyquist_out = fs / (2.0 * factor);
+        if (factor > 1 && freq_max >= nyquist_out)
+        {
+            throw new IllegalArgumentException("Maximum frequency must be below half the output sampling frequency.");
+        }
+
+        // Cut off at the output Nyquist frequency. The transition band runs
+        // from freq_max up to where its alias would land back on freq_max.
+        double transition = 2.0 * (nyquist_out - freq_max);
+        half_length = factor > 1 ? (int)Math.ceil(blackmanTransition * fs / transition / 2.0) : 0;
+        int num_taps = (2 * half_length) + 1;
+        taps = new double[num_taps];
+        double cutoff = 0.5 / factor;
+        double sum = 0.0;
+        for (int k = 0; k < num_taps; k++)
+        {
+            int n = k - half_length;
+            double sinc = (n == 0) ? 2.0 * cutoff : Math.sin(2.0 * Math.PI * cutoff * n) / (Math.PI * n);
+            double window = 0.42
+                    - (0.5 * Math.cos((2.0 * Math.PI * k) / (num_taps - 1)))
+                    + (0.08 * Math.cos((4.0 * Math.PI * k) / (num_taps - 1)));
+            taps[k] = num_taps > 1 ? sinc * window : 1.0;
+            sum += taps[k];
+        }
+        // Unity gain at zero frequency
+        for (int k = 0; k < num_taps; k++)
+        {
+            taps[k] /= sum;
+        }
+
+        buf = new double[blockSize + num_taps + factor];
+        scratch = new short[blockSize];
+        // Start with the zeroes before the first sample
+        buf_start = -half_length;
+        buf_end = 0;
+        eof = false;
+        total = 0;
+        next = 0;
+    }
+
+    /**
+     * Make sure the buffer holds input samples up to, not including, index end.
+     *
+     * @param end    Absolute index one past the last sample needed
+     */
+    private void Fill(long end)
+    {
+        while (buf_end < end)
+        {
+            int room = buf.length - (int)(buf_end - buf_start);
+            if (room == 0)
+            {
+                // Drop samples no output will need again
+                long keep = (next * factor) - half_length;
+                System.arraycopy(buf, (int)(keep - buf_start), buf, 0, (int)(buf_end - keep));
+                buf_start = keep;
+                continue;
+            }
+            if (eof)
+            {
+                // Past the end of the source: pad with zeroes
+                int n = (int)Math.min(room, end - buf_end);
+                Arrays.fill(buf, (int)(buf_end - buf_start), (int)(buf_end - buf_start) + n, 0.0);
+                buf_end += n;
+                continue;
+            }
+            int n = source.read(scratch, 0, Math.min(room, scratch.length));
+            if (n < 0)
+            {
+                eof = true;
+                total = buf_end;
+                continue;
+            }
+            int pos = (int)(buf_end - buf_start);
+            for (int i = 0; i < n; i++)
+            {
+                buf[pos + i] = scratch[i];
+            }
+            buf_end += n;
+        }
+    }
+
+    @Override
+    public int sampleFrequency()
+    {
+        return source.sampleFrequency() / factor;
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int len)
+    {
+        if (factor == 1)
+        {
+            return source.read(buffer, offset, len);
+        }
+        int count = 0;
+        while (count < len)
+        {
+            long center = next * factor;
+            Fill(center + half_length + 1);
+            // The source may have run out while filling
+            if (eof && center >= total)
+            {
+                break;
+            }
+            int base = (int)(center - half_length - buf_start);
+            double sum = 0.0;
+            for (int k = 0; k < taps.length; k++)
+            {
+                sum += taps[k] * buf[base + k];
+            }
+            long s = Math.round(sum);
+            buffer[offset + count] = (short)(s > Short.MAX_VALUE ? Short.MAX_VALUE : (s < Short.MIN_VALUE ? Short.MIN_VALUE : s));
+            next++;
+            count++;
+        }
+        if (count == 0 && len > 0)
+        {
+            return -1;
+        }
+        return count;
+    }
+
+    @Override
+    public void close()
+    {
+        source.close();
+    }
+
+}
@@ -0,0 +1,159 @@
+package main.java.com.branchy.libmath;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/** Spectra kept off the heap, in direct buffers, as doubles or floats.
+ * <p>
+ * The rows go in pages of a few megabytes, each page one block of native
+ * memory holding its rows one after another. Pages are only ever added or
+ * dropped, never copied, so growing the store is cheap, and there's no
+ * limit of 2 GB for the whole grid like there is for a single buffer.
+ * The garbage collector never has to scan or move the values.
+ * <p>
+ * Direct memory is capped by -XX:MaxDirectMemorySize, which by default
+ * is the same as the largest heap. Raise it for very long songs.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+class DirectSpectraStore extends SpectraStore {
+
+    /**
+     * Largest size of one page, in bytes
+     */
+    private static int pageBytes = 1 << 22;
+
+    /**
+     * One of these is used, depending on the precision.
+     * Row i is in page i / page_rows, starting at (i % page_rows) * columns.
+     */
+    private DoubleBuffer [] double_pages;
+    private FloatBuffer [] float_pages;
+    private boolean is_float;
+    private int page_rows;
+    private int rows;
+    private int columns;
+
+    DirectSpectraStore(PowerSpectrumWaterfall.Precision precision, int num_rows, int columns_in)
+    {
+        is_float = precision == PowerSpectrumWaterfall.Precision.FLOAT;
+        columns = columns_in;
+        page_rows = Math.max(1, pageBytes / (columns * ElementBytes()));
+        double_pages = new DoubleBuffer[0];
+        float_pages = new FloatBuffer[0];
+        rows = 0;
+        Resize(num_rows);
+    }
+
+    /**
+     * @return    Bytes in one value
+     */
+    private int ElementBytes()
+    {
+        return is_float ? Float.BYTES : Double.BYTES;
+    }
+
+    @Override
+    int Rows()
+    {
+        return rows;
+    }
+
+    @Override
+    int Columns()
+    {
+        return columns;
+    }
+
+    @Override
+    void Resize(int num_rows)
+    {
+        int num_pages = (num_rows + page_rows - 1) / page_rows;
+        int old_pages = is_float ? float_pages.length : double_pages.length;
+        if (is_float)
+        {
+            float_pages = Arrays.copyOf(float_pages, num_pages);
+        } else {
+            double_pages = Arrays.copyOf(double_pages, num_pages);
+        }
+        for (int p = old_pages; p < num_pages; p++)
+        {
+            ByteBuffer page = ByteBuffer.allocateDirect(page_rows * columns * ElementBytes()).order(ByteOrder.nativeOrder());
+            if (is_float)
+            {
+                float_pages[p] = page.asFloatBuffer();
+            } else {
+                double_pages[p] = page.asDoubleBuffer();
+            }
+        }
+        rows = num_rows;
+    }
+
+    @Override
+    void SetRow(int i, double [] row)
+    {
+        // Absolute puts don't touch the buffer's position,
+        // so tasks can set different rows at once
+        int base = (i % page_rows) * columns;
+        if (is_float)
+        {
+            FloatBuffer page = float_pages[i / page_rows];
+            for (int j = 0; j < columns; j++)
+            {
+                page.put(base + j, (float)row[j]);
+            }
+        } else {
+            double_pages[i / page_rows].put(base, row, 0, columns);
+        }
+    }
+
+    @Override
+    void GetRow(int i, double [] out)
+    {
+        int base = (i % page_rows) * columns;
+        if (is_float)
+        {
+            FloatBuffer page = float_pages[i / page_rows];
+            for (int j = 0; j < columns; j++)
+            {
+                out[j] = page.get(base + j);
+            }
+        } else {
+            double_pages[i / page_rows].get(base, out, 0, columns);
+        }
+    }
+
+    @Override
+    void GetColumn(int j, double [] out)
+    {
+        for (int i = 0; i < rows; i++)
+        {
+            out[i] = Get(i, j);
+        }
+    }
+
+    @Override
+    double Get(int i, int j)
+    {
+        int k = ((i % page_rows) * columns) + j;
+        if (is_float)
+        {
+            return float_pages[i / page_rows].get(k);
+        }
+        return double_pages[i / page_rows].get(k);
+    }
+
+    @Override
+    long Bytes()
+    {
+        int num_pages = is_float ? float_pages.length : double_pages.length;
+        return (long)num_pages * page_rows * columns * ElementBytes();
+    }
+
+}
@@ -0,0 +1,83 @@
+package main.java.com.branchy.libmath;
+
+import java.util.Arrays;
+
+/** Spectra kept as doubles, exactly as they were worked out.
+ * <p>
+ * All the rows are in one array, row after row, so the whole grid is
+ * a single block on the heap rather than an array object per row.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+class DoubleSpectraStore extends SpectraStore {
+
+    /**
+     * Value (i, j) is at values[(i * columns) + j]
+     */
+    private double [] values;
+    private int rows;
+    private int columns;
+
+    DoubleSpectraStore(int num_rows, int columns_in)
+    {
+        columns = columns_in;
+        rows = num_rows;
+        values = new double[FlatLength(rows, columns)];
+    }
+
+    @Override
+    int Rows()
+    {
+        return rows;
+    }
+
+    @Override
+    int Columns()
+    {
+        return columns;
+    }
+
+    @Override
+    void Resize(int num_rows)
+    {
+        values = Arrays.copyOf(values, FlatLength(num_rows, columns));
+        rows = num_rows;
+    }
+
+    @Override
+    void SetRow(int i, double [] row)
+    {
+        System.arraycopy(row, 0, values, i * columns, columns);
+    }
+
+    @Override
+    void GetRow(int i, double [] out)
+    {
+        System.arraycopy(values, i * columns, out, 0, columns);
+    }
+
+    @Override
+    void GetColumn(int j, double [] out)
+    {
+        for (int i = 0, k = j; i < rows; i++, k += columns)
+        {
+            out[i] = values[k];
+        }
+    }
+
+    @Override
+    double Get(int i, int j)
+    {
+        return values[(i * columns) + j];
+    }
+
+    @Override
+    long Bytes()
+    {
+        return (long)values.length * Double.BYTES;
+    }
+
+}
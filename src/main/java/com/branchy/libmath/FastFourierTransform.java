@@ -1,5 +1,7 @@
 package main.java.com.branchy.libmath;
 
+import java.util.Arrays;
+
 /** Implementation of the Fast Fourier Transform
  * <p>
  * Taken from "Numerical Recipes in C"
@@ -124,6 +126,113 @@ public class FastFourierTransform {
         return ret;
     }
     
+    /*
+     * realft() works on N real values and returns the N/2 + 1
+     * non-negative frequencies, for the case that data.length == N,
+     * ret.length == N + 2 and delta is the sampling time duration
+     * 
+     * ret[0] = real part of zero frequency
+     * ret[1] = imaginary part of zero frequency, always zero
+     * ret[2] = real part of frequency == 1 / (N * delta)
+     * ret[3] = imaginary part of frequency == 1 / (N * delta)
+     * ...
+     * ret[2*k] = real part of frequency == k / (N * delta)
+     * ret[2*k+1] = imaginary part of frequency == k / (N * delta)
+     * ...
+     * ret[N] = real part of frequency == 1 / (2 * delta)
+     * ret[N+1] = imaginary part of frequency == 1 / (2 * delta), always zero
+     * 
+     * The negative frequencies of a real input are the complex
+     * conjugates of these, so they aren't stored.
+     * Uses the same sign convention as four1().
+     */
+    
+    /**
+     * Transform real data, using a complex transform of half the length.
+     * <p>
+     * The N real values are treated as N/2 complex values, transformed with
+     * four1(), then untangled into the spectrum of the real data.
+     * Forward, data holds N real values and the half spectrum is returned.
+     * Inverse, data holds a half spectrum and N real values are returned,
+     * multiplied by N/2 (like four1(), the inverse isn't normalized).
+     * 
+     * @param data    Array of input data: N real values, or N + 2 half spectrum values
+     * @param isign   Direction of the transform: FORWARD_TRANSFORM or INVERSE_TRANSFORM
+     * @return        The transformed data
+     */
+    public static double [] realft(double [] data, int isign)
+    {
+        int n = isign == FORWARD_TRANSFORM ? data.length : data.length - 2;
+        if (!IsPowerOfTwo(n) || n < 4) {
+            throw new IllegalArgumentException("Input data must be an array with a power of two length.");
+        }
+        
+        // Also taken from the Numerical Recipes implementation,
+        // working on a 1-based array in its packed layout:
+        // ret[1] = zero frequency, ret[2] = Nyquist frequency,
+        // then real and imaginary parts of each frequency in between.
+        double [] ret;
+        double c1 = 0.5;
+        double c2;
+        double theta = Math.PI / (n >> 1);
+        if (isign == FORWARD_TRANSFORM)
+        {
+            c2 = -0.5;
+            ret = four1(data, FORWARD_TRANSFORM);
+        } else {
+            c2 = 0.5;
+            theta = -theta;
+            ret = new double[n + 1];
+            ret[1] = data[0];
+            ret[2] = data[n];
+            System.arraycopy(data, 2, ret, 3, n - 2);
+        }
+        
+        double wtemp = Math.sin(0.5 * theta);
+        double wpr = -2.0 * wtemp * wtemp;
+        double wpi = Math.sin(theta);
+        double wr = 1.0 + wpr;
+        double wi = wpi;
+        int np3 = n + 3;
+        double h1r = 0.0;
+        for (int i = 2; i <= (n >> 2); i++)
+        {
+            int i1 = i + i - 1;
+            int i2 = 1 + i1;
+            int i3 = np3 - i2;
+            int i4 = 1 + i3;
+            // Separate the transforms of the even and odd samples back out,
+            // then recombine them with the twiddle factor
+            h1r = c1 * (ret[i1] + ret[i3]);
+            double h1i = c1 * (ret[i2] - ret[i4]);
+            double h2r = -c2 * (ret[i2] + ret[i4]);
+            double h2i = c2 * (ret[i1] - ret[i3]);
+            ret[i1] = h1r + (wr * h2r) - (wi * h2i);
+            ret[i2] = h1i + (wr * h2i) + (wi * h2r);
+            ret[i3] = h1r - (wr * h2r) + (wi * h2i);
+            ret[i4] = -h1i + (wr * h2i) + (wi * h2r);
+            wtemp = wr;
+            wr = (wtemp * wpr) - (wi * wpi) + wr;
+            wi = (wi * wpr) + (wtemp * wpi) + wi;
+        }
+        
+        if (isign == FORWARD_TRANSFORM)
+        {
+            // Unpack into the half spectrum layout
+            double [] spectrum = new double[n + 2];
+            spectrum[0] = ret[1] + ret[2];
+            spectrum[n] = ret[1] - ret[2];
+            System.arraycopy(ret, 3, spectrum, 2, n - 2);
+            return spectrum;
+        }
+        
+        h1r = ret[1];
+        ret[1] = c1 * (h1r + ret[2]);
+        ret[2] = c1 * (h1r - ret[2]);
+        double [] inverse = four1(Arrays.copyOfRange(ret, 1, n + 1), INVERSE_TRANSFORM);
+        return Arrays.copyOfRange(inverse, 1, n + 1);
+    }
+    
     /**
      * Helper to swap elements in the array
      * 
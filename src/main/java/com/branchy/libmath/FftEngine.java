@@ -0,0 +1,90 @@
+package main.java.com.branchy.libmath;
+
+/** Something that can do in-place Fourier transforms.
+ * <p>
+ * All engines use the layouts of FftPlan.ComplexInPlace() and
+ * FftPlan.RealInPlace(), and the sign convention of
+ * FastFourierTransform.four1(), so they can be swapped for each other.
+ * Implementations must be safe to use from several threads at once.
+ * See FftEngines for picking one.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public interface FftEngine {
+
+    /**
+     * @return    Short name of the engine, as used by FftEngines.ForName()
+     */
+    public String Name();
+
+    /**
+     * Complex transform in place.
+     *
+     * @param data    n / 2 complex values as 0-based (re, im) pairs. At least n long.
+     * @param n       Number of doubles to transform. Must be a power of two, at least 4.
+     * @param isign   Direction of the transform: FORWARD_TRANSFORM or INVERSE_TRANSFORM
+     */
+    public void ComplexInPlace(double [] data, int n, int isign);
+
+    /**
+     * Real transform in place.
+     * Forward, n real values in, half spectrum out. Inverse, the other way
+     * around, multiplied by n / 2.
+     *
+     * @param data    Work buffer, at least n + 2 long
+     * @param n       Number of real values. Must be a power of two, at least 4.
+     * @param isign   Direction of the transform: FORWARD_TRANSFORM or INVERSE_TRANSFORM
+     */
+    public void RealInPlace(double [] data, int n, int isign);
+
+    /**
+     * Forward real transforms of several frames at once.
+     * Frame f is the n real values starting at block[f * stride], and gets
+     * back its half spectrum in place, the same as RealInPlace() would give.
+     * Engines may run each stage across all the frames before moving on,
+     * so the twiddles for a stage are fetched once for the whole batch.
+     *
+     * @param block    The frames, at least ((frames - 1) * stride) + n + 2 long
+     * @param n        Number of real values in a frame. Must be a power of two, at least 4.
+     * @param frames   Number of frames
+     * @param stride   Distance from the start of one frame to the next, at least n + 2
+     */
+    public void RealForwardBatch(double [] block, int n, int frames, int stride);
+
+    /**
+     * Turn a half spectrum from RealInPlace() into compressed magnitudes:
+     * out[j] = log10(sqrt(re * re + im * im) + 2), adding two to avoid log(0).
+     *
+     * @param spectrum    Half spectrum as 0-based (re, im) pairs, at least 2 * bins long
+     * @param out         Where the magnitudes go, at least bins long
+     * @param bins        Number of frequency bins to convert
+     */
+    public default void LogMagnitude(double [] spectrum, double [] out, int bins)
+    {
+        LogMagnitude(spectrum, 0, out, 0, bins);
+    }
+
+    /**
+     * Same as LogMagnitude() above, for a spectrum and output somewhere inside bigger arrays.
+     * Engines that can do this faster override it.
+     *
+     * @param spectrum      Holds the half spectrum
+     * @param offset        Where the half spectrum starts
+     * @param out           Holds the magnitudes
+     * @param out_offset    Where the magnitudes start
+     * @param bins          Number of frequency bins to convert
+     */
+    public default void LogMagnitude(double [] spectrum, int offset, double [] out, int out_offset, int bins)
+    {
+        for (int j = 0; j < bins; j++)
+        {
+            double real = spectrum[offset + (j * 2)];
+            double imag = spectrum[offset + (j * 2) + 1];
+            out[out_offset + j] = Math.log10(Math.sqrt((real * real) + (imag * imag)) + 2);
+        }
+    }
+
+}
@@ -0,0 +1,272 @@
+package main.java.com.branchy.libmath;
+
+import java.util.Random;
+
+/** Picks the FftEngine to use, and checks engines against the reference.
+ * <p>
+ * The default engine comes from the markov_music.fft system property,
+ * e.g. -Dmarkov_music.fft=reference. If it isn't set it's the vector engine
+ * when it was built, from src_vector, and the JVM was started with
+ * --add-modules jdk.incubator.vector, and radix4 otherwise. Asking for
+ * the vector engine without either also gets radix4.
+ * It can also be changed in code with SetDefault().
+ * Either way the engine is checked against the reference engine before
+ * it's used, so a broken engine fails fast instead of quietly giving
+ * wrong spectra.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class FftEngines {
+    /**
+     * System property naming the default engine
+     */
+    public static final String engineProperty = "markov_music.fft";
+
+    /**
+     * Name of the vector engine, and of the engine used in its place without the module
+     */
+    private static final String vectorName = "vector";
+    private static final String fallbackName = "radix4";
+
+    /**
+     * The vector engine class is only loaded by name, so nothing else
+     * needs the incubator module to compile or run. It's built from its
+     * own source tree, and may not be there at all.
+     */
+    private static final String vectorClass = "main.java.com.branchy.libmath.VectorFftEngine";
+    private static final String vectorModule = "jdk.incubator.vector";
+
+    /**
+     * Largest error allowed against the reference, relative to the largest output value
+     */
+    private static double tolerance = 1e-9;
+
+    /**
+     * Sizes checked before an engine becomes the default.
+     * Covers odd and even numbers of radix-2 stages, and the 4K to 64K
+     * transforms the waterfall uses.
+     */
+    private static int [] checkSizes = { 4, 8, 16, 32, 1024, 2048, 4096, 8192, 16384, 32768, 65536 };
+
+    /**
+     * Frames in the batch checked, and the samples left between them
+     */
+    private static int checkFrames = 3;
+    private static int checkGap = 3;
+
+    /**
+     * Engine used when the caller doesn't pick one
+     */
+    private static volatile FftEngine defaultEngine;
+
+    /**
+     * @return    All the engines there are
+     */
+    public static FftEngine [] All()
+    {
+        FftEngine vector = LoadVectorEngine();
+        if (vector == null)
+        {
+            return new FftEngine[] { new ReferenceFftEngine(), new Radix2FftEngine(), new Radix4FftEngine() };
+        }
+        return new FftEngine[] { new ReferenceFftEngine(), new Radix2FftEngine(), new Radix4FftEngine(), vector };
+    }
+
+    /**
+     * @return    A new vector engine, or null if the JVM doesn't have the incubator module or it wasn't built
+     */
+    private static FftEngine LoadVectorEngine()
+    {
+        if (!ModuleLayer.boot().findModule(vectorModule).isPresent())
+        {
+            return null;
+        }
+        try
+        {
+            return (FftEngine)Class.forName(vectorClass).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param name    Engine name, e.g. "radix4"
+     * @return        A new engine of that name
+     */
+    public static FftEngine ForName(String name)
+    {
+        for (FftEngine e : All())
+        {
+            if (e.Name().equalsIgnoreCase(name))
+            {
+                return e;
+            }
+        }
+        throw new IllegalArgumentException("Unknown FFT engine: " + name);
+    }
+
+    /**
+     * @return    The engine to use when the caller doesn't pick one
+     */
+    public static FftEngine Default()
+    {
+        FftEngine e = defaultEngine;
+        if (e == null)
+        {
+            synchronized (FftEngines.class)
+            {
+                if (defaultEngine == null)
+                {
+                    String name = System.getProperty(engineProperty, vectorName);
+                    if (name.equalsIgnoreCase(vectorName) && LoadVectorEngine() == null)
+                    {
+                        name = fallbackName;
+                    }
+                    FftEngine chosen = ForName(name);
+                    Verify(chosen);
+                    defaultEngine = chosen;
+                }
+                e = defaultEngine;
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Change the default engine, after checking it.
+     *
+     * @param engine    The new default
+     */
+    public static void SetDefault(FftEngine engine)
+    {
+        Verify(engine);
+        defaultEngine = engine;
+    }
+
+    /**
+     * Check an engine against the reference on random data, over a range of sizes.
+     *
+     * @param engine                     The engine to check
+     * @throws IllegalStateException     If the engine doesn't match the reference
+     */
+    public static void Verify(FftEngine engine)
+    {
+        for (int n : checkSizes)
+        {
+            double err = MaxRelativeError(engine, n);
+            if (!(err <= tolerance))
+            {
+                throw new IllegalStateException("FFT engine " + engine.Name()
+                        + " doesn't match the reference at size " + n + ": relative error " + err);
+            }
+        }
+    }
+
+    /**
+     * Check the arguments of FftEngine.RealForwardBatch(), for the engines
+     *
+     * @throws IllegalArgumentException     If the frames don't fit
+     */
+    static void CheckBatch(double [] block, int n, int frames, int stride)
+    {
+        if (frames < 0 || stride < n + 2)
+        {
+            throw new IllegalArgumentException("Frames must be at least " + (n + 2) + " apart.");
+        }
+        if (frames > 0 && block.length < ((long)(frames - 1) * stride) + n + 2)
+        {
+            throw new IllegalArgumentException("Input data must be an array of length "
+                    + (((long)(frames - 1) * stride) + n + 2) + ".");
+        }
+    }
+
+    /**
+     * Largest difference between an engine and the reference, over complex and real
+     * transforms in both directions, and a batch of forward real transforms,
+     * relative to the largest reference output. Each frame of the batch is
+     * compared with the reference's RealInPlace(). A batch that changes any
+     * value between or after its frames counts as an infinite error.
+     *
+     * @param engine    The engine to check
+     * @param n         Transform size
+     * @return          The relative error
+     */
+    public static double MaxRelativeError(FftEngine engine, int n)
+    {
+        FftEngine reference = new ReferenceFftEngine();
+        Random rnd = new Random(n);
+        double max_err = 0.0;
+        for (int isign : new int[] { FastFourierTransform.FORWARD_TRANSFORM, FastFourierTransform.INVERSE_TRANSFORM })
+        {
+            for (int real = 0; real < 2; real++)
+            {
+                double [] expected = new double[n + 2];
+                for (int i = 0; i < n; i++)
+                {
+                    expected[i] = rnd.nextGaussian();
+                }
+                if (real == 1 && isign == FastFourierTransform.INVERSE_TRANSFORM)
+                {
+                    // The inverse real transform wants a half spectrum, with real end points
+                    expected[1] = 0.0;
+                    expected[n] = rnd.nextGaussian();
+                }
+                double [] actual = expected.clone();
+                if (real == 1)
+                {
+                    reference.RealInPlace(expected, n, isign);
+                    engine.RealInPlace(actual, n, isign);
+                } else {
+                    reference.ComplexInPlace(expected, n, isign);
+                    engine.ComplexInPlace(actual, n, isign);
+                }
+                double scale = 0.0;
+                double err = 0.0;
+                for (int i = 0; i < n + 2; i++)
+                {
+                    scale = Math.max(scale, Math.abs(expected[i]));
+                    err = Math.max(err, Math.abs(expected[i] - actual[i]));
+                }
+                max_err = Math.max(max_err, err / scale);
+            }
+        }
+
+        // Frames further apart than they need to be, with values between
+        // them and after the last that the batch mustn't touch
+        int stride = n + 2 + checkGap;
+        double [] block = new double[checkFrames * stride];
+        for (int i = 0; i < block.length; i++)
+        {
+            block[i] = rnd.nextGaussian();
+        }
+        double [] before = block.clone();
+        engine.RealForwardBatch(block, n, checkFrames, stride);
+        for (int f = 0; f < checkFrames; f++)
+        {
+            int start = f * stride;
+            double [] expected = new double[n + 2];
+            System.arraycopy(before, start, expected, 0, n);
+            reference.RealInPlace(expected, n, FastFourierTransform.FORWARD_TRANSFORM);
+            double scale = 0.0;
+            double err = 0.0;
+            for (int i = 0; i < n + 2; i++)
+            {
+                scale = Math.max(scale, Math.abs(expected[i]));
+                err = Math.max(err, Math.abs(expected[i] - block[start + i]));
+            }
+            max_err = Math.max(max_err, err / scale);
+            for (int i = start + n + 2; i < start + stride; i++)
+            {
+                if (block[i] != before[i])
+                {
+                    return Double.POSITIVE_INFINITY;
+                }
+            }
+        }
+        return max_err;
+    }
+
+}
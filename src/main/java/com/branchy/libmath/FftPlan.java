@@ -0,0 +1,383 @@
+package main.java.com.branchy.libmath;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** Precomputed tables for transforms of one size.
+ * <p>
+ * Does the same transforms as FastFourierTransform.four1() and realft(),
+ * with the same output layouts, but the bit reversal swaps and the
+ * twiddle factors are worked out once per size instead of on every call.
+ * The twiddles are taken straight from sin() and cos() rather than built
+ * up with the trigonometric recurrence, so they don't accumulate rounding error.
+ * <p>
+ * Plans are immutable, so one plan can be used from any number of threads.
+ * Get them from ForSize(), which shares one plan per size.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class FftPlan {
+    /**
+     * One plan per size, shared by everyone. The plan for size n is at
+     * the power of two of n, so looking one up doesn't box the size.
+     */
+    private static final AtomicReferenceArray<FftPlan> plans = new AtomicReferenceArray<FftPlan>(32);
+
+    /**
+     * Length of the data arrays this plan handles: n real values,
+     * or n / 2 complex values stored as (re, im) pairs
+     */
+    private final int n;
+
+    /**
+     * Number of complex values in the complex transform
+     */
+    private final int nn;
+
+    /**
+     * Pairs of complex indices to swap for the bit reversal permutation
+     */
+    private final int [] swaps;
+
+    /**
+     * cos() and sin() of 2 pi k / nn, for k < nn / 2.
+     * Twiddles for the complex transform.
+     */
+    private final double [] cos_table;
+    private final double [] sin_table;
+
+    /**
+     * cos() and sin() of 2 pi k / n, for k <= n / 4.
+     * Twiddles for untangling a real transform.
+     */
+    private final double [] real_cos_table;
+    private final double [] real_sin_table;
+
+    /**
+     * Look up the plan for a size, creating it the first time it's needed.
+     *
+     * @param n    Length of the data arrays to transform. Must be a power of two, at least 4.
+     * @return     The shared plan
+     */
+    public static FftPlan ForSize(int n)
+    {
+        if (!FastFourierTransform.IsPowerOfTwo(n) || n < 4) {
+            throw new IllegalArgumentException("Input data must be an array with a power of two length.");
+        }
+        int k = Integer.numberOfTrailingZeros(n);
+        FftPlan plan = plans.get(k);
+        if (plan == null)
+        {
+            synchronized (plans)
+            {
+                plan = plans.get(k);
+                if (plan == null)
+                {
+                    plan = new FftPlan(n);
+                    plans.set(k, plan);
+                }
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Work out the tables. Use ForSize() instead.
+     *
+     * @param n_in    Length of the data arrays to transform
+     */
+    private FftPlan(int n_in)
+    {
+        if (!FastFourierTransform.IsPowerOfTwo(n_in) || n_in < 4) {
+            throw new IllegalArgumentException("Input data must be an array with a power of two length.");
+        }
+        n = n_in;
+        nn = n / 2;
+
+        // Same permutation as the Numerical Recipes loop, recorded instead of applied
+        int num_swaps = 0;
+        int [] tmp = new int[nn];
+        int j = 0;
+        for (int i = 0; i < nn; i++)
+        {
+            if (j > i)
+            {
+                tmp[num_swaps++] = i;
+                tmp[num_swaps++] = j;
+            }
+            int m = nn >> 1;
+            while (m >= 1 && j >= m)
+            {
+                j -= m;
+                m >>= 1;
+            }
+            j += m;
+        }
+        swaps = new int[num_swaps];
+        System.arraycopy(tmp, 0, swaps, 0, num_swaps);
+
+        cos_table = new double[nn / 2];
+        sin_table = new double[nn / 2];
+        for (int k = 0; k < nn / 2; k++)
+        {
+            double theta = (2.0 * Math.PI * k) / nn;
+            cos_table[k] = Math.cos(theta);
+            sin_table[k] = Math.sin(theta);
+        }
+
+        real_cos_table = new double[(n / 4) + 1];
+        real_sin_table = new double[(n / 4) + 1];
+        for (int k = 0; k <= n / 4; k++)
+        {
+            double theta = (2.0 * Math.PI * k) / n;
+            real_cos_table[k] = Math.cos(theta);
+            real_sin_table[k] = Math.sin(theta);
+        }
+    }
+
+    /**
+     * @return    Length of the data arrays this plan handles
+     */
+    public int Size()
+    {
+        return n;
+    }
+
+    /**
+     * Same as FastFourierTransform.four1(), including the 1-based return layout.
+     *
+     * @param data    Array of input data, size Size()
+     * @param isign   Direction of the transform: FORWARD_TRANSFORM or INVERSE_TRANSFORM
+     * @return        The transformed data
+     */
+    public double [] four1(double [] data, int isign)
+    {
+        CheckLength(data.length, n);
+        double [] tmp = data.clone();
+        ComplexInPlace(tmp, isign);
+        double [] ret = new double[n + 1];
+        System.arraycopy(tmp, 0, ret, 1, n);
+        return ret;
+    }
+
+    /**
+     * Same as FastFourierTransform.realft(), including the half spectrum layout.
+     *
+     * @param data    Array of input data: Size() real values, or Size() + 2 half spectrum values
+     * @param isign   Direction of the transform: FORWARD_TRANSFORM or INVERSE_TRANSFORM
+     * @return        The transformed data
+     */
+    public double [] realft(double [] data, int isign)
+    {
+        double [] tmp = new double[n + 2];
+        if (isign == FastFourierTransform.FORWARD_TRANSFORM)
+        {
+            CheckLength(data.length, n);
+            System.arraycopy(data, 0, tmp, 0, n);
+            RealInPlace(tmp, isign);
+            return tmp;
+        }
+        CheckLength(data.length, n + 2);
+        System.arraycopy(data, 0, tmp, 0, n + 2);
+        RealInPlace(tmp, isign);
+        double [] ret = new double[n];
+        System.arraycopy(tmp, 0, ret, 0, n);
+        return ret;
+    }
+
+    /**
+     * Complex transform in place, without allocating anything.
+     * <p>
+     * 0-based: data holds Size() / 2 complex values as (re, im) pairs,
+     * and gets back their transform in the same layout as four1()
+     * minus its unused first element.
+     *
+     * @param data    The data, transformed in place. At least Size() long.
+     * @param isign   Direction of the transform: FORWARD_TRANSFORM or INVERSE_TRANSFORM
+     */
+    public void ComplexInPlace(double [] data, int isign)
+    {
+        ComplexInPlace(data, 0, isign);
+    }
+
+    /**
+     * Complex transform in place, of the Size() doubles starting at off.
+     *
+     * @param data    The data, transformed in place
+     * @param off     Where the complex values start
+     * @param isign   Direction of the transform: FORWARD_TRANSFORM or INVERSE_TRANSFORM
+     */
+    public void ComplexInPlace(double [] data, int off, int isign)
+    {
+        if (off < 0 || data.length - off < n)
+        {
+            throw new IllegalArgumentException("Input data must have " + (n) + " values from offset " + off + ".");
+        }
+        BitReverse(data, off);
+
+        // Butterflies over groups of size g, twiddle exp(isign * 2 pi i k / g)
+        for (int g = 2; g <= nn; g <<= 1)
+        {
+            int half = g >> 1;
+            int stride = nn / g;
+            for (int k = 0; k < half; k++)
+            {
+                double wr = cos_table[k * stride];
+                double wi = isign * sin_table[k * stride];
+                for (int i = k; i < nn; i += g)
+                {
+                    int a = off + (2 * i);
+                    int b = off + (2 * (i + half));
+                    double tempr = (wr * data[b]) - (wi * data[b + 1]);
+                    double tempi = (wr * data[b + 1]) + (wi * data[b]);
+                    data[b] = data[a] - tempr;
+                    data[b + 1] = data[a + 1] - tempi;
+                    data[a] += tempr;
+                    data[a + 1] += tempi;
+                }
+            }
+        }
+    }
+
+    /**
+     * Real transform in place, without allocating anything.
+     * <p>
+     * data must be Size() + 2 long. Forward, the first Size() elements hold
+     * the real input and the whole array gets back the half spectrum, laid
+     * out like realft(). Inverse, it's the other way around, and the real
+     * values come back multiplied by Size() / 2.
+     *
+     * @param data    The data, transformed in place
+     * @param isign   Direction of the transform: FORWARD_TRANSFORM or INVERSE_TRANSFORM
+     */
+    public void RealInPlace(double [] data, int isign)
+    {
+        RealInPlace(data, 0, isign);
+    }
+
+    /**
+     * Real transform in place, of the Size() + 2 doubles starting at off.
+     *
+     * @param data    The data, transformed in place
+     * @param off     Where the values start
+     * @param isign   Direction of the transform: FORWARD_TRANSFORM or INVERSE_TRANSFORM
+     */
+    public void RealInPlace(double [] data, int off, int isign)
+    {
+        if (off < 0 || data.length - off < n + 2)
+        {
+            throw new IllegalArgumentException("Input data must have " + (n + 2) + " values from offset " + off + ".");
+        }
+        if (isign == FastFourierTransform.FORWARD_TRANSFORM)
+        {
+            ComplexInPlace(data, off, isign);
+            Untangle(data, off, isign);
+            PackEnds(data, off);
+            return;
+        }
+
+        UnpackEnds(data, off);
+        Untangle(data, off, isign);
+        ComplexInPlace(data, off, isign);
+        data[off + n] = 0.0;
+        data[off + n + 1] = 0.0;
+    }
+
+    /**
+     * After a forward real transform: the zero and Nyquist frequencies are
+     * both real and come back packed into the first pair. Move them to the ends.
+     * Shared with the other engines.
+     *
+     * @param data    The half spectrum
+     * @param off     Where it starts
+     */
+    void PackEnds(double [] data, int off)
+    {
+        double h1r = data[off];
+        double h1i = data[off + 1];
+        data[off] = h1r + h1i;
+        data[off + 1] = 0.0;
+        data[off + n] = h1r - h1i;
+        data[off + n + 1] = 0.0;
+    }
+
+    /**
+     * Before an inverse real transform: the reverse of PackEnds().
+     *
+     * @param data    The half spectrum
+     * @param off     Where it starts
+     */
+    void UnpackEnds(double [] data, int off)
+    {
+        double h1r = data[off];
+        data[off] = 0.5 * (h1r + data[off + n]);
+        data[off + 1] = 0.5 * (h1r - data[off + n]);
+    }
+
+    /**
+     * Put the complex values in bit reversed order, in place.
+     * Shared with the other engines that start from bit reversed input.
+     *
+     * @param data    Size() / 2 complex values as (re, im) pairs
+     * @param off     Where they start
+     */
+    void BitReverse(double [] data, int off)
+    {
+        for (int p = 0; p < swaps.length; p += 2)
+        {
+            int a = off + (2 * swaps[p]);
+            int b = off + (2 * swaps[p + 1]);
+            double tr = data[a];
+            double ti = data[a + 1];
+            data[a] = data[b];
+            data[a + 1] = data[b + 1];
+            data[b] = tr;
+            data[b + 1] = ti;
+        }
+    }
+
+    /**
+     * Separate the transforms of the even and odd samples of a real input
+     * back out and recombine them, as in realft(). 0-based, in place.
+     * The zero and Nyquist frequency pair is left for the caller.
+     * Shared with the other engines.
+     *
+     * @param data    n values in the packed layout
+     * @param off     Where they start
+     * @param isign   Direction of the transform
+     */
+    void Untangle(double [] data, int off, int isign)
+    {
+        double c1 = 0.5;
+        double c2 = isign == FastFourierTransform.FORWARD_TRANSFORM ? -0.5 : 0.5;
+        for (int k = 1; k < n / 4; k++)
+        {
+            int a = off + (2 * k);
+            int b = off + n - (2 * k);
+            double wr = real_cos_table[k];
+            double wi = isign * real_sin_table[k];
+            double h1r = c1 * (data[a] + data[b]);
+            double h1i = c1 * (data[a + 1] - data[b + 1]);
+            double h2r = -c2 * (data[a + 1] + data[b + 1]);
+            double h2i = c2 * (data[a] - data[b]);
+            data[a] = h1r + (wr * h2r) - (wi * h2i);
+            data[a + 1] = h1i + (wr * h2i) + (wi * h2r);
+            data[b] = h1r - (wr * h2r) + (wi * h2i);
+            data[b + 1] = -h1i + (wr * h2i) + (wi * h2r);
+        }
+    }
+
+    /**
+     * Helper to check an input array length
+     */
+    private static void CheckLength(int length, int expected)
+    {
+        if (length != expected)
+        {
+            throw new IllegalArgumentException("Input data must be an array of length " + expected + ".");
+        }
+    }
+
+}
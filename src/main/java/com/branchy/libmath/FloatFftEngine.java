@@ -0,0 +1,360 @@
+package main.java.com.branchy.libmath;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** Single precision transforms, for PowerSpectrumWaterfall's float mode.
+ * <p>
+ * The same radix-4 butterflies and layouts as Radix4FftEngine, on float
+ * arrays with float twiddles. Half the memory traffic of the double
+ * engines. Every bin carries rounding of about seven significant digits
+ * of the loudest ones, so quiet bins are far less precise than that.
+ * See PowerSpectrumWaterfall.Precision for what that does to the notes.
+ * Use PowerSpectrumWaterfall.Precision.FLOAT to get it; there's no
+ * FftEngine for floats, since that interface is all doubles.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class FloatFftEngine {
+
+    /**
+     * Tables for one size of real transform
+     */
+    private static class Tables {
+        /**
+         * Pairs of complex indices to swap for the bit reversal permutation
+         */
+        final int [] swaps;
+
+        /**
+         * True if the first stage is done on its own as radix-2
+         */
+        final boolean radix2_first;
+
+        /**
+         * Block size of each radix-4 pass, in complex values
+         */
+        final int [] block_sizes;
+
+        /**
+         * Twiddles for each pass. For butterfly k of a block of size B:
+         * cos and sin of 2 pi m k / B for m = 1, 2, 3, in that order.
+         */
+        final float [][] twiddles;
+
+        /**
+         * cos() and sin() of 2 pi k / n, for k <= n / 4, for untangling
+         */
+        final float [] real_cos_table;
+        final float [] real_sin_table;
+
+        Tables(int n)
+        {
+            int nn = n / 2;
+            int stages = Integer.numberOfTrailingZeros(nn);
+            int num_swaps = 0;
+            int [] tmp = new int[nn];
+            for (int i = 0; i < nn; i++)
+            {
+                int j = Integer.reverse(i) >>> (32 - stages);
+                if (j > i)
+                {
+                    tmp[num_swaps++] = i;
+                    tmp[num_swaps++] = j;
+                }
+            }
+            swaps = new int[num_swaps];
+            System.arraycopy(tmp, 0, swaps, 0, num_swaps);
+
+            radix2_first = (stages % 2) == 1;
+            int num_passes = stages / 2;
+            block_sizes = new int[num_passes];
+            twiddles = new float[num_passes][];
+            int block = radix2_first ? 8 : 4;
+            for (int p = 0; p < num_passes; p++)
+            {
+                int quarter = block / 4;
+                float [] tw = new float[6 * quarter];
+                for (int k = 0; k < quarter; k++)
+                {
+                    for (int m = 1; m <= 3; m++)
+                    {
+                        double theta = (2.0 * Math.PI * m * k) / block;
+                        tw[(6 * k) + (2 * (m - 1))] = (float)Math.cos(theta);
+                        tw[(6 * k) + (2 * (m - 1)) + 1] = (float)Math.sin(theta);
+                    }
+                }
+                block_sizes[p] = block;
+                twiddles[p] = tw;
+                block *= 4;
+            }
+
+            real_cos_table = new float[(n / 4) + 1];
+            real_sin_table = new float[(n / 4) + 1];
+            for (int k = 0; k <= n / 4; k++)
+            {
+                double theta = (2.0 * Math.PI * k) / n;
+                real_cos_table[k] = (float)Math.cos(theta);
+                real_sin_table[k] = (float)Math.sin(theta);
+            }
+        }
+    }
+
+    /**
+     * One set of tables per real transform size, shared by everyone,
+     * at the size's power of two so looking them up doesn't box the size
+     */
+    private static final AtomicReferenceArray<Tables> tables = new AtomicReferenceArray<Tables>(32);
+
+    /**
+     * Real transform in place, laid out like FftPlan.RealInPlace().
+     *
+     * @param data    Work buffer, at least n + 2 long
+     * @param n       Number of real values. Must be a power of two, at least 4.
+     * @param isign   Direction of the transform: FORWARD_TRANSFORM or INVERSE_TRANSFORM
+     */
+    public void RealInPlace(float [] data, int n, int isign)
+    {
+        Tables t = TablesFor(n);
+        if (data.length < n + 2)
+        {
+            throw new IllegalArgumentException("Input data must be an array of length " + (n + 2) + ".");
+        }
+        if (isign == FastFourierTransform.FORWARD_TRANSFORM)
+        {
+            BitReverse(data, 0, t);
+            Butterflies(data, n, 1, 0, t, isign);
+            Untangle(data, 0, n, t, isign);
+            // Zero and Nyquist frequencies come back packed into the first pair
+            float h1r = data[0];
+            float h1i = data[1];
+            data[0] = h1r + h1i;
+            data[1] = 0.0f;
+            data[n] = h1r - h1i;
+            data[n + 1] = 0.0f;
+            return;
+        }
+
+        float h1r = data[0];
+        data[0] = 0.5f * (h1r + data[n]);
+        data[1] = 0.5f * (h1r - data[n]);
+        Untangle(data, 0, n, t, isign);
+        BitReverse(data, 0, t);
+        Butterflies(data, n, 1, 0, t, isign);
+        data[n] = 0.0f;
+        data[n + 1] = 0.0f;
+    }
+
+    /**
+     * Forward real transforms of several frames at once,
+     * as in FftEngine.RealForwardBatch().
+     *
+     * @param block    The frames, at least ((frames - 1) * stride) + n + 2 long
+     * @param n        Number of real values in a frame. Must be a power of two, at least 4.
+     * @param frames   Number of frames
+     * @param stride   Distance from the start of one frame to the next, at least n + 2
+     */
+    public void RealForwardBatch(float [] block, int n, int frames, int stride)
+    {
+        Tables t = TablesFor(n);
+        if (frames < 0 || stride < n + 2)
+        {
+            throw new IllegalArgumentException("Frames must be at least " + (n + 2) + " apart.");
+        }
+        if (frames > 0 && block.length < ((long)(frames - 1) * stride) + n + 2)
+        {
+            throw new IllegalArgumentException("Input data must be an array of length "
+                    + (((long)(frames - 1) * stride) + n + 2) + ".");
+        }
+        int isign = FastFourierTransform.FORWARD_TRANSFORM;
+        for (int f = 0; f < frames; f++)
+        {
+            BitReverse(block, f * stride, t);
+        }
+        Butterflies(block, n, frames, stride, t, isign);
+        for (int f = 0; f < frames; f++)
+        {
+            int off = f * stride;
+            Untangle(block, off, n, t, isign);
+            float h1r = block[off];
+            float h1i = block[off + 1];
+            block[off] = h1r + h1i;
+            block[off + 1] = 0.0f;
+            block[off + n] = h1r - h1i;
+            block[off + n + 1] = 0.0f;
+        }
+    }
+
+    /**
+     * Compressed magnitudes of a half spectrum, as in FftEngine.LogMagnitude().
+     * Worked out in float, handed back as double for the waterfall's rows.
+     *
+     * @param spectrum    Holds the half spectrum
+     * @param offset      Where the half spectrum starts
+     * @param out         Where the magnitudes go
+     * @param bins        Number of frequency bins to convert
+     */
+    public void LogMagnitude(float [] spectrum, int offset, double [] out, int bins)
+    {
+        for (int j = 0; j < bins; j++)
+        {
+            float real = spectrum[offset + (j * 2)];
+            float imag = spectrum[offset + (j * 2) + 1];
+            float magnitude = (float)Math.sqrt((real * real) + (imag * imag));
+            out[j] = (float)Math.log10(magnitude + 2.0f);
+        }
+    }
+
+    /**
+     * @param n    Number of real values in the transform
+     * @return     The shared tables for it
+     */
+    private static Tables TablesFor(int n)
+    {
+        if (!FastFourierTransform.IsPowerOfTwo(n) || n < 4) {
+            throw new IllegalArgumentException("Input data must be an array with a power of two length.");
+        }
+        int k = Integer.numberOfTrailingZeros(n);
+        Tables t = tables.get(k);
+        if (t == null)
+        {
+            synchronized (tables)
+            {
+                t = tables.get(k);
+                if (t == null)
+                {
+                    t = new Tables(n);
+                    tables.set(k, t);
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Put the complex values starting at off in bit reversed order
+     */
+    private static void BitReverse(float [] data, int off, Tables t)
+    {
+        int [] swaps = t.swaps;
+        for (int p = 0; p < swaps.length; p += 2)
+        {
+            int a = off + (2 * swaps[p]);
+            int b = off + (2 * swaps[p + 1]);
+            float tr = data[a];
+            float ti = data[a + 1];
+            data[a] = data[b];
+            data[a + 1] = data[b + 1];
+            data[b] = tr;
+            data[b + 1] = ti;
+        }
+    }
+
+    /**
+     * All the butterflies of complex transforms of bit reversed input,
+     * each pass done on every frame before the next. See Radix4FftEngine.
+     */
+    private static void Butterflies(float [] data, int n, int frames, int stride, Tables t, int isign)
+    {
+        if (t.radix2_first)
+        {
+            for (int f = 0; f < frames; f++)
+            {
+                int end = (f * stride) + n;
+                for (int a = f * stride; a < end; a += 4)
+                {
+                    float tr = data[a + 2];
+                    float ti = data[a + 3];
+                    data[a + 2] = data[a] - tr;
+                    data[a + 3] = data[a + 1] - ti;
+                    data[a] += tr;
+                    data[a + 1] += ti;
+                }
+            }
+        }
+
+        for (int p = 0; p < t.block_sizes.length; p++)
+        {
+            int block = t.block_sizes[p];
+            // Distance between the four points of a butterfly, in floats
+            int step = block / 2;
+            float [] tw = t.twiddles[p];
+            for (int f = 0; f < frames; f++)
+            {
+                int end = (f * stride) + n;
+                for (int base = f * stride; base < end; base += 2 * block)
+                {
+                    for (int k = 0, w = 0; w < tw.length; k += 2, w += 6)
+                    {
+                        int i0 = base + k;
+                        int i1 = i0 + step;
+                        int i2 = i1 + step;
+                        int i3 = i2 + step;
+
+                        float w1r = tw[w];
+                        float w1i = isign * tw[w + 1];
+                        float w2r = tw[w + 2];
+                        float w2i = isign * tw[w + 3];
+                        float w3r = tw[w + 4];
+                        float w3i = isign * tw[w + 5];
+
+                        float ar = data[i0];
+                        float ai = data[i0 + 1];
+                        float br = (w2r * data[i1]) - (w2i * data[i1 + 1]);
+                        float bi = (w2r * data[i1 + 1]) + (w2i * data[i1]);
+                        float cr = (w1r * data[i2]) - (w1i * data[i2 + 1]);
+                        float ci = (w1r * data[i2 + 1]) + (w1i * data[i2]);
+                        float dr = (w3r * data[i3]) - (w3i * data[i3 + 1]);
+                        float di = (w3r * data[i3 + 1]) + (w3i * data[i3]);
+
+                        float s0r = ar + br;
+                        float s0i = ai + bi;
+                        float s1r = ar - br;
+                        float s1i = ai - bi;
+                        float s2r = cr + dr;
+                        float s2i = ci + di;
+                        // (c - d) rotated a quarter turn in the direction of the transform
+                        float s3r = -isign * (ci - di);
+                        float s3i = isign * (cr - dr);
+
+                        data[i0] = s0r + s2r;
+                        data[i0 + 1] = s0i + s2i;
+                        data[i2] = s0r - s2r;
+                        data[i2 + 1] = s0i - s2i;
+                        data[i1] = s1r + s3r;
+                        data[i1 + 1] = s1i + s3i;
+                        data[i3] = s1r - s3r;
+                        data[i3 + 1] = s1i - s3i;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as FftPlan.Untangle(), in float
+     */
+    private static void Untangle(float [] data, int off, int n, Tables t, int isign)
+    {
+        float c1 = 0.5f;
+        float c2 = isign == FastFourierTransform.FORWARD_TRANSFORM ? -0.5f : 0.5f;
+        for (int k = 1; k < n / 4; k++)
+        {
+            int a = off + (2 * k);
+            int b = off + n - (2 * k);
+            float wr = t.real_cos_table[k];
+            float wi = isign * t.real_sin_table[k];
+            float h1r = c1 * (data[a] + data[b]);
+            float h1i = c1 * (data[a + 1] - data[b + 1]);
+            float h2r = -c2 * (data[a + 1] + data[b + 1]);
+            float h2i = c2 * (data[a] - data[b]);
+            data[a] = h1r + (wr * h2r) - (wi * h2i);
+            data[a + 1] = h1i + (wr * h2i) + (wi * h2r);
+            data[b] = h1r - (wr * h2r) + (wi * h2i);
+            data[b + 1] = -h1i + (wr * h2i) + (wi * h2r);
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package main.java.com.branchy.libmath;
+
+import java.util.Arrays;
+
+/** Spectra kept as floats: half the memory of doubles.
+ * <p>
+ * The values are log10 of magnitudes, a few units at most, so a float
+ * keeps them to about one part in ten million. All the rows are in one
+ * array, row after row.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+class FloatSpectraStore extends SpectraStore {
+
+    /**
+     * Value (i, j) is at values[(i * columns) + j]
+     */
+    private float [] values;
+    private int rows;
+    private int columns;
+
+    FloatSpectraStore(int num_rows, int columns_in)
+    {
+        columns = columns_in;
+        rows = num_rows;
+        values = new float[FlatLength(rows, columns)];
+    }
+
+    @Override
+    int Rows()
+    {
+        return rows;
+    }
+
+    @Override
+    int Columns()
+    {
+        return columns;
+    }
+
+    @Override
+    void Resize(int num_rows)
+    {
+        values = Arrays.copyOf(values, FlatLength(num_rows, columns));
+        rows = num_rows;
+    }
+
+    @Override
+    void SetRow(int i, double [] row)
+    {
+        int base = i * columns;
+        for (int j = 0; j < columns; j++)
+        {
+            values[base + j] = (float)row[j];
+        }
+    }
+
+    @Override
+    void GetRow(int i, double [] out)
+    {
+        int base = i * columns;
+        for (int j = 0; j < columns; j++)
+        {
+            out[j] = values[base + j];
+        }
+    }
+
+    @Override
+    void GetColumn(int j, double [] out)
+    {
+        for (int i = 0, k = j; i < rows; i++, k += columns)
+        {
+            out[i] = values[k];
+        }
+    }
+
+    @Override
+    double Get(int i, int j)
+    {
+        return values[(i * columns) + j];
+    }
+
+    @Override
+    long Bytes()
+    {
+        return (long)values.length * Float.BYTES;
+    }
+
+}
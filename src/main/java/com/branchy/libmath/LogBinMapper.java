@@ -0,0 +1,207 @@
+package main.java.com.branchy.libmath;
+
+/** Rebins a linear frequency spectrum onto a logarithmic frequency scale.
+ * <p>
+ * Each log bin is the average of the FFT bins whose frequencies fall in
+ * it. Those are always a run of neighbouring FFT bins, so which run goes
+ * with which log bin is worked out once, up front, and every spectrum
+ * after that is just sums over the runs. No logarithms per spectrum, and
+ * only the FFT bins between the bottom and top of the log scale are read.
+ * <p>
+ * At the bottom of the scale the FFT bins are further apart than the log
+ * bins, so some log bins get none. Those take the value of the nearest
+ * filled bin below, or above if there's none below. Or, if asked for,
+ * a straight line between the filled bins either side.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+class LogBinMapper {
+
+    private int num_bins;
+
+    /**
+     * Log bin k averages FFT bins first[k] up to, not including, first[k] + count[k].
+     * The counts are doubles for dividing by.
+     */
+    private int [] first;
+    private double [] count;
+
+    /**
+     * Filled log bins, lowest first, and the ones of those that average
+     * more than one FFT bin
+     */
+    private int [] filled;
+    private int [] averaged;
+
+    /**
+     * Empty log bin empty[e] is (1 - weight[e]) of bin below[e] plus weight[e] of bin above[e]
+     */
+    private int [] empty;
+    private int [] below;
+    private int [] above;
+    private double [] weight;
+
+    private int first_bin;
+    private int last_bin;
+
+    /**
+     * The log bins are evenly spaced in log frequency from freq_min to freq_max.
+     *
+     * @param freq           Frequency of each FFT bin, in Hertz, lowest first
+     * @param freq_min       Bottom of the log frequency scale, in Hertz
+     * @param freq_max       Top of the log frequency scale, in Hertz
+     * @param num_bins_in    Number of log bins
+     * @param interpolate    Whether empty log bins are interpolated between their
+     *                       neighbours, rather than copied from the one below
+     */
+    LogBinMapper(double [] freq, double freq_min, double freq_max, int num_bins_in, boolean interpolate)
+    {
+        num_bins = num_bins_in;
+        double min_freq_log = Math.log10(freq_min);
+        double delta = (Math.log10(freq_max) - min_freq_log) / num_bins;
+
+        first = new int[num_bins];
+        count = new double[num_bins];
+        first_bin = freq.length;
+        last_bin = -1;
+        for (int j = 0; j < freq.length; j++)
+        {
+            // Zero frequency doesn't go anywhere on a log scale
+            if (freq[j] <= 0.0)
+            {
+                continue;
+            }
+            int bin = (int)((Math.log10(freq[j]) - min_freq_log) / delta);
+            if (bin >= 0 && bin < num_bins)
+            {
+                if (count[bin] == 0)
+                {
+                    first[bin] = j;
+                }
+                count[bin] += 1;
+                first_bin = Math.min(first_bin, j);
+                last_bin = j;
+            }
+        }
+
+        int num_filled = 0;
+        int num_averaged = 0;
+        for (int k = 0; k < num_bins; k++)
+        {
+            num_filled += count[k] > 0 ? 1 : 0;
+            num_averaged += count[k] > 1 ? 1 : 0;
+        }
+        filled = new int[num_filled];
+        averaged = new int[num_averaged];
+        empty = new int[num_bins - num_filled];
+        below = new int[empty.length];
+        above = new int[empty.length];
+        weight = new double[empty.length];
+        num_filled = 0;
+        num_averaged = 0;
+        for (int k = 0; k < num_bins; k++)
+        {
+            if (count[k] > 0)
+            {
+                filled[num_filled++] = k;
+            }
+            if (count[k] > 1)
+            {
+                averaged[num_averaged++] = k;
+            }
+        }
+
+        // Nearest filled bin on either side of each empty one
+        int e = 0;
+        int lower = -1;
+        for (int k = 0; k < num_bins; k++)
+        {
+            if (count[k] > 0)
+            {
+                lower = k;
+                continue;
+            }
+            int upper = k + 1;
+            while (upper < num_bins && count[upper] == 0)
+            {
+                upper++;
+            }
+            empty[e] = k;
+            if (lower < 0 && upper == num_bins)
+            {
+                // Nothing filled at all. Left at zero.
+                below[e] = -1;
+                above[e] = -1;
+            } else if (lower < 0) {
+                below[e] = upper;
+                above[e] = upper;
+            } else if (interpolate && upper < num_bins) {
+                below[e] = lower;
+                above[e] = upper;
+                weight[e] = (double)(k - lower) / (upper - lower);
+            } else {
+                below[e] = lower;
+                above[e] = lower;
+            }
+            e++;
+        }
+    }
+
+    /**
+     * @return    Lowest FFT bin any log bin uses. More than LastBin() if there are none.
+     */
+    int FirstBin()
+    {
+        return first_bin;
+    }
+
+    /**
+     * @return    Highest FFT bin any log bin uses
+     */
+    int LastBin()
+    {
+        return last_bin;
+    }
+
+    /**
+     * @return    The log bins that are averages of more than one FFT bin. Don't change it.
+     */
+    int [] AveragedBins()
+    {
+        return averaged;
+    }
+
+    /**
+     * @param spectrum    One value per FFT bin
+     * @param out         Where the log bins go, at least as long as the number of log bins
+     */
+    void Apply(double [] spectrum, double [] out)
+    {
+        for (int f = 0; f < filled.length; f++)
+        {
+            int k = filled[f];
+            double sum = 0.0;
+            int end = first[k] + (int)count[k];
+            for (int j = first[k]; j < end; j++)
+            {
+                sum += spectrum[j];
+            }
+            out[k] = sum / count[k];
+        }
+        for (int e = 0; e < empty.length; e++)
+        {
+            if (below[e] < 0)
+            {
+                out[empty[e]] = 0.0;
+            } else if (below[e] == above[e]) {
+                out[empty[e]] = out[below[e]];
+            } else {
+                out[empty[e]] = ((1.0 - weight[e]) * out[below[e]]) + (weight[e] * out[above[e]]);
+            }
+        }
+    }
+
+}
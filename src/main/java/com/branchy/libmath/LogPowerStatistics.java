@@ -0,0 +1,368 @@
+package main.java.com.branchy.libmath;
+
+import java.util.Arrays;
+
+/** Median and standard deviation of a grid of log powers, gathered a value at a time.
+ * <p>
+ * The log powers are log10(magnitude + 2) of the transform of a chunk of
+ * 16 bit samples, so they fall between log10(2), silence, and
+ * log10(32768 * chunk size + 2), a full scale sinusoid filling the chunk.
+ * That range is split into 16384 even slices, and each slice counts the
+ * values falling in it and keeps the lowest and highest of them. That's
+ * enough to place the median within one slice without sorting anything,
+ * or to find it exactly by gathering up only the values in its slice.
+ * Histograms of parts of a grid can be merged, in any order.
+ * <p>
+ * The standard deviation comes from the mean and the sum of squared
+ * differences from it of each row, see StdDev().
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-17
+ */
+
+public class LogPowerStatistics {
+
+    /**
+     * Number of slices in the histogram
+     */
+    private static int histogramBins = 16384;
+
+    /**
+     * Most values ExactMedian() gathers up to pick the median from.
+     * A slice with more is split refineBins ways until one has few enough.
+     */
+    private static int selectLimit = 1 << 16;
+    private static int refineBins = 4096;
+
+    /**
+     * Gives ExactMedian() the rows of the grid the values came from
+     */
+    public interface Rows {
+        /**
+         * @param i      Row to get
+         * @param out    Where its values go
+         */
+        void GetRow(int i, double [] out);
+    }
+
+    /**
+     * Bottom of the range, and slices per unit of log power
+     */
+    private double floor;
+    private double scale;
+
+    /**
+     * How many values fall in each slice, and the lowest and highest of them
+     */
+    private long [] histogram;
+    private double [] slice_min;
+    private double [] slice_max;
+    private long count;
+
+    /**
+     * @return    Lowest log power of a transform, silence
+     */
+    public static double MinLogPower()
+    {
+        return Math.log10(2);
+    }
+
+    /**
+     * @param chunk_size    Number of samples in a chunk
+     * @return              Highest log power of a transform of a chunk of 16 bit samples
+     */
+    public static double MaxLogPower(int chunk_size)
+    {
+        return Math.log10((32768.0 * chunk_size) + 2);
+    }
+
+    /**
+     * @param chunk_size    Number of samples in a chunk the log powers are of
+     */
+    public LogPowerStatistics(int chunk_size)
+    {
+        floor = MinLogPower();
+        scale = histogramBins / (MaxLogPower(chunk_size) - floor);
+        histogram = new long[histogramBins];
+        slice_min = new double[histogramBins];
+        slice_max = new double[histogramBins];
+        Arrays.fill(slice_min, Double.POSITIVE_INFINITY);
+        Arrays.fill(slice_max, Double.NEGATIVE_INFINITY);
+        count = 0;
+    }
+
+    /**
+     * @param log_power    A log power. Ones out of range go in the end slices.
+     */
+    public void Add(double log_power)
+    {
+        int b = (int)((log_power - floor) * scale);
+        b = Math.max(0, Math.min(histogramBins - 1, b));
+        histogram[b]++;
+        slice_min[b] = Math.min(slice_min[b], log_power);
+        slice_max[b] = Math.max(slice_max[b], log_power);
+        count++;
+    }
+
+    /**
+     * @param other    Statistics of more of the grid, for the same chunk size, to add in
+     */
+    public void Merge(LogPowerStatistics other)
+    {
+        for (int b = 0; b < histogramBins; b++)
+        {
+            histogram[b] += other.histogram[b];
+            slice_min[b] = Math.min(slice_min[b], other.slice_min[b]);
+            slice_max[b] = Math.max(slice_max[b], other.slice_max[b]);
+        }
+        count += other.count;
+    }
+
+    /**
+     * @return    Number of log powers added
+     */
+    public long Count()
+    {
+        return count;
+    }
+
+    /**
+     * @return    Lowest log power added. At least one must have been.
+     */
+    public double Lowest()
+    {
+        int b = 0;
+        while (histogram[b] == 0)
+        {
+            b++;
+        }
+        return slice_min[b];
+    }
+
+    /**
+     * @return    Highest log power added. At least one must have been.
+     */
+    public double Highest()
+    {
+        int b = histogramBins - 1;
+        while (histogram[b] == 0)
+        {
+            b--;
+        }
+        return slice_max[b];
+    }
+
+    /**
+     * Places the median without looking at the values again. The values
+     * in its slice are taken to be evenly spread from the lowest to the
+     * highest, so it's within a slice width,
+     * (log10(32768 * chunk size + 2) - log10(2)) / 16384, of the true one,
+     * and exact if the slice holds a single value, e.g. silence.
+     *
+     * @return    The median, the value at Count() / 2 in order. At least one must have been added.
+     */
+    public double Median()
+    {
+        long k = count / 2;
+        int b = SliceOf(k);
+        k -= Before(b);
+        double lo = slice_min[b];
+        double hi = slice_max[b];
+        if (lo == hi)
+        {
+            return lo;
+        }
+        return lo + ((hi - lo) * ((double)k / (histogram[b] - 1)));
+    }
+
+    /**
+     * Finds the median exactly, going back over the grid for the values
+     * in its slice only.
+     *
+     * @param rows          The grid the log powers added came from
+     * @param num_rows      Number of rows in it
+     * @param row_length    Number of values in a row
+     * @return              The median, the value at Count() / 2 in order
+     */
+    public double ExactMedian(Rows rows, int num_rows, int row_length)
+    {
+        long k = count / 2;
+        int b = SliceOf(k);
+        k -= Before(b);
+        double lo = slice_min[b];
+        double hi = slice_max[b];
+        long in_slice = histogram[b];
+
+        // Too many to gather up: split lo to hi the same way, until a slice has few enough
+        double [] row = new double[row_length];
+        long [] refined = null;
+        double [] refined_min = null;
+        double [] refined_max = null;
+        while (lo < hi && in_slice > selectLimit)
+        {
+            if (refined == null)
+            {
+                refined = new long[refineBins];
+                refined_min = new double[refineBins];
+                refined_max = new double[refineBins];
+            }
+            Arrays.fill(refined, 0L);
+            Arrays.fill(refined_min, Double.POSITIVE_INFINITY);
+            Arrays.fill(refined_max, Double.NEGATIVE_INFINITY);
+            double refine_scale = refineBins / (hi - lo);
+            for (int i = 0; i < num_rows; i++)
+            {
+                rows.GetRow(i, row);
+                for (int j = 0; j < row_length; j++)
+                {
+                    double v = row[j];
+                    if (v >= lo && v <= hi)
+                    {
+                        int r = Math.min(refineBins - 1, (int)((v - lo) * refine_scale));
+                        refined[r]++;
+                        refined_min[r] = Math.min(refined_min[r], v);
+                        refined_max[r] = Math.max(refined_max[r], v);
+                    }
+                }
+            }
+            int r = 0;
+            while (k >= refined[r])
+            {
+                k -= refined[r];
+                r++;
+            }
+            lo = refined_min[r];
+            hi = refined_max[r];
+            in_slice = refined[r];
+        }
+
+        // All the same value, e.g. silence, or one fixed point step. Nothing to gather.
+        if (lo == hi)
+        {
+            return lo;
+        }
+        double [] gathered = new double[(int)in_slice];
+        int n = 0;
+        for (int i = 0; i < num_rows; i++)
+        {
+            rows.GetRow(i, row);
+            for (int j = 0; j < row_length; j++)
+            {
+                if (row[j] >= lo && row[j] <= hi)
+                {
+                    gathered[n++] = row[j];
+                }
+            }
+        }
+        return Select(gathered, (int)k);
+    }
+
+    /**
+     * Standard deviation of a whole grid, from the statistics of each row.
+     * The rows are combined in order, so the result doesn't depend on
+     * how they were shared out to be worked out.
+     *
+     * @param row_mean      Mean of each row
+     * @param row_m2        Sum of squared differences from its mean of each row
+     * @param num_rows      Number of rows
+     * @param row_length    Number of values in a row
+     * @return              The standard deviation
+     */
+    public static double StdDev(double [] row_mean, double [] row_m2, int num_rows, int row_length)
+    {
+        // Combine the rows one at a time: the mean moves towards the new
+        // row's mean, and the sum of squared differences picks up the
+        // row's own plus what the two means being apart adds
+        double total_count = 0.0;
+        double mean = 0.0;
+        double m2 = 0.0;
+        for (int i = 0; i < num_rows; i++)
+        {
+            double total = total_count + row_length;
+            double delta = row_mean[i] - mean;
+            mean += delta * (row_length / total);
+            m2 += row_m2[i] + (delta * delta * ((total_count * row_length) / total));
+            total_count = total;
+        }
+        return Math.sqrt(m2 / total_count);
+    }
+
+    /**
+     * @param k    Rank of a value, from 0
+     * @return     The slice it's in
+     */
+    private int SliceOf(long k)
+    {
+        int b = 0;
+        while (k >= histogram[b])
+        {
+            k -= histogram[b];
+            b++;
+        }
+        return b;
+    }
+
+    /**
+     * @param b    A slice
+     * @return     Number of values in the slices below it
+     */
+    private long Before(int b)
+    {
+        long n = 0;
+        for (int c = 0; c < b; c++)
+        {
+            n += histogram[c];
+        }
+        return n;
+    }
+
+    /**
+     * Finds the kth smallest of some values, by quickselect.
+     *
+     * @param values    The values. Put in a different order.
+     * @param k         Rank of the value to find, from 0
+     * @return          The value
+     */
+    private static double Select(double [] values, int k)
+    {
+        int lo = 0;
+        int hi = values.length - 1;
+        while (lo < hi)
+        {
+            double pivot = values[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j)
+            {
+                while (values[i] < pivot)
+                {
+                    i++;
+                }
+                while (values[j] > pivot)
+                {
+                    j--;
+                }
+                if (i <= j)
+                {
+                    double tmp = values[i];
+                    values[i] = values[j];
+                    values[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            // Everything up to j is no more than the pivot, everything from i no less
+            if (k <= j)
+            {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return values[k];
+            }
+        }
+        return values[k];
+    }
+
+}
@@ -1,8 +1,11 @@
 package main.java.com.branchy.libmath;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import main.java.com.branchy.libmp3.SampleSource;
 
 /** Takes in a set of data and calculates a series of power spectra on the data.
  * <p>
@@ -16,14 +19,61 @@ import java.util.List;
 public class PowerSpectrumWaterfall {
     
     /**
-     * The raw power spectra data
+     * Precision of the transforms and of the stored spectra.
+     * FLOAT halves the memory for the spectra and the transform work.
+     * Its rounding is in proportion to the loudest bins, so quiet bins are
+     * much less precise than loud ones, and the notes picked out can
+     * differ from DOUBLE's.
+     * FIXED_16 and FIXED_8 do the transforms in double, and keep each
+     * value as a 16 or 8 bit code, for a quarter or an eighth of the
+     * memory. They're only kept on the heap. See GetLogPowerStep() and
+     * Options.SetNoteThreshold().
+     */
+    public enum Precision {
+        DOUBLE,
+        FLOAT,
+        FIXED_16,
+        FIXED_8
+    }
+    
+    /**
+     * How the log frequency spectra are worked out from each chunk.
+     * REBIN averages the FFT bins falling in each log bin, and fills
+     * the empty ones at the bottom from their neighbors.
+     * CONSTANT_Q gives each log bin its own window, see ConstantQKernel,
+     * so every bin has a value of its own. Its bass windows are longer
+     * than a chunk, so it transforms a longer frame centered on each
+     * chunk: the next power of two that fits the longest window. At
+     * 11025 Hz that's 8192 samples for 55 Hz, about two and a half times
+     * the time and four times the linear spectra of a 2048 sample chunk.
+     * The log spectra are the same size either way.
+     */
+    public enum LogScale {
+        REBIN,
+        CONSTANT_Q
+    }
+    
+    /**
+     * Where the spectra are kept. HEAP keeps each grid in one array.
+     * OFF_HEAP keeps them in direct buffers, outside the garbage
+     * collected heap, for songs whose grids would need a huge heap.
+     * It's for DOUBLE and FLOAT only: FIXED_16 and FIXED_8 are kept on the heap.
+     */
+    public enum Storage {
+        HEAP,
+        OFF_HEAP
+    }
+    
+    /**
+     * The raw power spectra data, or null if they weren't kept.
+     * Nothing needs them once the log spectra are worked out.
      */
-    private double [][] spectra;
+    private SpectraStore spectra;
     /**
      * Power spectra re-sampled to a logarithmic frequency scale
      * and a logarithmic power scale.
      */
-    private double [][] spectra_log;
+    private SpectraStore spectra_log;
     /**
      * Frequency scale for each spectra, expressed in Hertz
      */
@@ -47,9 +97,26 @@ public class PowerSpectrumWaterfall {
      */
     private int chunk_size;
     /**
-     * Actual size of one spectra -> chunk_size / 2
+     * Number of samples transformed for each chunk: the chunk itself, or
+     * for CONSTANT_Q a frame long enough for the longest window, with
+     * lead samples before the chunk and as many after
+     */
+    private int fft_size;
+    private int lead;
+    /**
+     * Actual size of one spectra -> fft_size / 2
      */
     private int spectra_size;
+    /**
+     * Number of samples from the start of one chunk to the start of the next
+     */
+    private int hop;
+    /**
+     * Window each chunk is tapered with before it's transformed, and its
+     * table, or null if the chunk goes in as it is
+     */
+    private WindowFunction window;
+    private double [] window_table;
     /**
      * Total number of spectra generated, given the input data size
      */
@@ -67,6 +134,386 @@ public class PowerSpectrumWaterfall {
     private double min_log_power;
     private double median_log_power;
     private double stddev_log_power;
+    /**
+     * Statistics of the log spectra grid, gathered as each chunk is stored.
+     * Row i has mean row_mean[i] and sum of squared differences from that
+     * mean row_m2[i]. They're combined in row order, so the result is the
+     * same however the chunks were shared out.
+     * The histogram of every log power is in totals.
+     */
+    private double [] row_mean;
+    private double [] row_m2;
+    private PowerRange totals;
+    /**
+     * Whether the median is found exactly, by going back over the grid
+     * once it's built, rather than placed within its slice of the histogram
+     */
+    private boolean exact_median;
+    /**
+     * Precision of the transforms and the stored spectra
+     */
+    private Precision precision;
+    /**
+     * Number of standard deviations above the median notes are picked out
+     * at, or NaN if not known. The fixed point levels are placed around it.
+     */
+    private double note_threshold;
+    /**
+     * Step of the 32 bit codes the fixed point log spectra were held in
+     * until the note threshold was known, or 0 if they weren't
+     */
+    private double staged_step;
+    /**
+     * Where the stored spectra are kept
+     */
+    private Storage storage;
+    /**
+     * Engine doing the transforms. See FftEngines for choosing it.
+     * In float mode, float_engine does them instead.
+     */
+    private FftEngine fft_engine;
+    private FloatFftEngine float_engine;
+    /**
+     * How the log spectra are worked out, and the kernels for CONSTANT_Q
+     */
+    private LogScale log_scale;
+    private ConstantQKernel cq_kernel;
+    /**
+     * Which FFT bins go in which log bin, for REBIN
+     */
+    private LogBinMapper log_bin_mapper;
+    /**
+     * Work spaces for the parallel tasks, not in use. A task takes one, or
+     * makes one if there are none spare, and puts it back when it's done,
+     * so there are only as many as ever run at once.
+     */
+    private ConcurrentLinkedQueue<Scratch> task_scratch;
+    /**
+     * Whether the FFT bins in use are kept up to date as the chunks move on,
+     * with a SlidingDft, instead of transforming each chunk. Done when
+     * that's cheaper, and only when the transforms are in double.
+     * The bins in use are first_bin to last_bin.
+     */
+    private boolean use_sliding_dft;
+    private int first_bin;
+    private int last_bin;
+    /**
+     * Length of the CONSTANT_Q windows, in periods of their frequencies.
+     * 34 makes a window a little narrower than a semitone.
+     */
+    private static double q_factor = 34.0;
+    /**
+     * Number of frames transformed together
+     */
+    private static int batch_frames = 8;
+    /**
+     * Number of chunks in the smallest parallel task. Tasks start on a
+     * multiple of this, and so does the sliding DFT, sequential or not.
+     */
+    private static int chunks_per_task = 64;
+    
+    /**
+     * Highest and lowest powers seen in some of the chunks, and the
+     * histogram of their stored log powers.
+     * Each work space the parallel tasks share has its own, kept from
+     * task to task, and they're merged once every chunk is in.
+     * Working on one thread, the chunks are counted straight into the totals.
+     */
+    private class PowerRange {
+        double max_power = 0.0;
+        double min_power = 1000000.0;
+        double max_log_power = 0.0;
+        double min_log_power = 1000000.0;
+        LogPowerStatistics histogram = new LogPowerStatistics(chunk_size);
+        
+        void Merge(PowerRange other)
+        {
+            max_power = Math.max(max_power, other.max_power);
+            min_power = Math.min(min_power, other.min_power);
+            max_log_power = Math.max(max_log_power, other.max_log_power);
+            min_log_power = Math.min(min_log_power, other.min_log_power);
+            histogram.Merge(other.histogram);
+        }
+    }
+    
+    /**
+     * Work space for working through a run of chunks, reused for every
+     * chunk so the per chunk loop doesn't allocate: the samples a batch
+     * covers, the transform buffers for a batch of chunks (fft_size
+     * samples in, half spectrum out, fft_size + 2 apart), one per
+     * precision, the spectra and log spectra being worked out, the log
+     * spectra as stored, the
+     * sliding DFT if it's used, and the powers seen. Each parallel task
+     * running at once has its own.
+     */
+    private class Scratch {
+        double [] samples;
+        double [] fft_block;
+        float [] fft_block_float;
+        double [] spectra_row;
+        double [] log_row;
+        double [] kept_row;
+        SlidingDft sliding_dft;
+        PowerRange range;
+        
+        /**
+         * @param range_in    Where to count the powers seen
+         */
+        Scratch(PowerRange range_in)
+        {
+            range = range_in;
+            samples = new double[((batch_frames - 1) * hop) + fft_size];
+            if (precision == Precision.FLOAT)
+            {
+                fft_block_float = new float[batch_frames * (fft_size + 2)];
+            } else {
+                fft_block = new double[batch_frames * (fft_size + 2)];
+            }
+            spectra_row = new double[spectra_size];
+            log_row = new double[num_freq_log];
+            kept_row = new double[num_freq_log];
+            if (use_sliding_dft)
+            {
+                sliding_dft = new SlidingDft(fft_engine, fft_size, first_bin, last_bin);
+                // The other bins are never worked out. They read as silence.
+                Arrays.fill(spectra_row, Math.log10(2));
+            }
+        }
+    }
+    
+    /**
+     * Works out the chunks from first to first + count - 1, splitting them
+     * in two until they're no more than chunks_per_task or so.
+     */
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private short [] src;
+        private int base;
+        private int valid;
+        private int first;
+        private int count;
+        
+        ChunkTask(short [] src, int base, int valid, int first, int count)
+        {
+            this.src = src;
+            this.base = base;
+            this.valid = valid;
+            this.first = first;
+            this.count = count;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            // Split on a multiple of chunks_per_task
+            int split = ((first + (count / 2)) / chunks_per_task) * chunks_per_task;
+            if (split <= first)
+            {
+                split += chunks_per_task;
+            }
+            if (split >= first + count)
+            {
+                // Borrow a work space, with the powers it's seen so far
+                Scratch s = task_scratch.poll();
+                if (s == null)
+                {
+                    s = new Scratch(new PowerRange());
+                }
+                PopulateChunks(s, src, base, valid, first, count);
+                task_scratch.offer(s);
+                return;
+            }
+            invokeAll(new ChunkTask(src, base, valid, first, split - first),
+                    new ChunkTask(src, base, valid, split, (first + count) - split));
+        }
+    }
+    
+    /**
+     * Choices for how a waterfall is worked out, beyond the sizes and
+     * frequencies every waterfall needs. A new Options has the defaults,
+     * and each setter changes one choice and returns the Options, e.g.
+     * new PowerSpectrumWaterfall.Options().SetPrecision(Precision.FLOAT).SetWindow(WindowFunction.HANN)
+     * <p>
+     * The defaults: DOUBLE, REBIN, on the calling thread, on the heap,
+     * no linear spectra kept, four hops per chunk, RECTANGULAR, empty
+     * log bins copied from the filled bin below, the median placed
+     * from the histogram, and no note threshold.
+     */
+    public static class Options {
+        private Precision precision = Precision.DOUBLE;
+        private LogScale log_scale = LogScale.REBIN;
+        private ForkJoinPool pool = null;
+        private Storage storage = Storage.HEAP;
+        private boolean keep_linear = false;
+        private int hop = 0;
+        private int hops_per_chunk = 4;
+        private WindowFunction window = WindowFunction.RECTANGULAR;
+        private boolean interpolate_empty_bins = false;
+        private boolean exact_median = false;
+        private double note_threshold = Double.NaN;
+        
+        /**
+         * @param precision_in    Precision of the transforms and the stored spectra
+         * @return                These options
+         */
+        public Options SetPrecision(Precision precision_in)
+        {
+            precision = precision_in;
+            return this;
+        }
+        
+        /**
+         * @param log_scale_in    How the log spectra are worked out
+         * @return                These options
+         */
+        public Options SetLogScale(LogScale log_scale_in)
+        {
+            log_scale = log_scale_in;
+            return this;
+        }
+        
+        /**
+         * The result is identical whether it's done in parallel or not.
+         * The pool is only used while the waterfall is being constructed.
+         * 
+         * @param pool_in    Pool to share the chunks out over, or null to do them all on the calling thread
+         * @return           These options
+         */
+        public Options SetPool(ForkJoinPool pool_in)
+        {
+            pool = pool_in;
+            return this;
+        }
+        
+        /**
+         * @param storage_in    Where the spectra are kept
+         * @return              These options
+         */
+        public Options SetStorage(Storage storage_in)
+        {
+            storage = storage_in;
+            return this;
+        }
+        
+        /**
+         * Nothing reads the linear spectra back yet, so they're only worth
+         * keeping for code added to this class.
+         * 
+         * @param keep_linear_in    Whether to keep the linear frequency spectra as well as the log ones
+         * @return                  These options
+         */
+        public Options SetKeepLinear(boolean keep_linear_in)
+        {
+            keep_linear = keep_linear_in;
+            return this;
+        }
+        
+        /**
+         * @param hop_in    Number of samples from the start of one chunk to the next,
+         *                  from 1 to the chunk size, whatever the chunk size.
+         *                  0 goes back to SetHopsPerChunk().
+         * @return          These options
+         */
+        public Options SetHop(int hop_in)
+        {
+            hop = hop_in;
+            return this;
+        }
+        
+        /**
+         * 4 overlaps the chunks by 75%. More makes a smoother waterfall with
+         * finer timing, for more work. Only used if SetHop() wasn't.
+         * 
+         * @param hops_per_chunk_in    Number of hops in a chunk. The chunk size must be a multiple of it.
+         * @return                     These options
+         */
+        public Options SetHopsPerChunk(int hops_per_chunk_in)
+        {
+            hops_per_chunk = hops_per_chunk_in;
+            hop = 0;
+            return this;
+        }
+        
+        /**
+         * @param window_in    Window each chunk is tapered with. Only used for REBIN.
+         * @return             These options
+         */
+        public Options SetWindow(WindowFunction window_in)
+        {
+            window = window_in;
+            return this;
+        }
+        
+        /**
+         * Only the lowest log bins are ever empty, where the FFT bins are
+         * further apart than the log bins. Only used for REBIN.
+         * 
+         * @param interpolate_in    Whether log bins no FFT bin falls in are a straight line
+         *                          between the filled bins either side, rather than a copy
+         *                          of the filled bin below
+         * @return                  These options
+         */
+        public Options SetInterpolateEmptyBins(boolean interpolate_in)
+        {
+            interpolate_empty_bins = interpolate_in;
+            return this;
+        }
+        
+        /**
+         * The median placed from the histogram is within one slice of
+         * it, see GetMedianLogPower(). The exact one takes another pass
+         * over the grid once it's built, unless the slice holds a single value.
+         * FIXED_16 and FIXED_8 don't keep the log powers exactly, so can't use it.
+         * 
+         * @param exact_median_in    Whether the median is found exactly
+         * @return                   These options
+         */
+        public Options SetExactMedian(boolean exact_median_in)
+        {
+            exact_median = exact_median_in;
+            return this;
+        }
+        
+        /**
+         * The threshold notes are picked out at is
+         * GetMedianLogPower() + (num_stddev * GetStdDevLogPower()), as in
+         * WaterfallToGrid. FIXED_16 and FIXED_8 place their levels so it
+         * falls halfway between two, so a stored log power is above it
+         * exactly when the one worked out was, unless it was within
+         * GetNoteThresholdTolerance() of it, and the same notes are
+         * picked out as in DOUBLE. Until the threshold is known, the log
+         * spectra are held as 32 bit codes, half the memory of DOUBLE.
+         * The other precisions don't use it.
+         * 
+         * @param num_stddev    Number of standard deviations above the median notes are picked out at
+         * @return              These options
+         */
+        public Options SetNoteThreshold(double num_stddev)
+        {
+            note_threshold = num_stddev;
+            return this;
+        }
+        
+        /**
+         * The hop these options give for a chunk size, so other analyses
+         * can line their chunks up with the waterfall's.
+         * 
+         * @param chunk_size_in    Number of input samples in a chunk
+         * @return                 Number of samples from the start of one chunk to the next
+         */
+        public int HopFor(int chunk_size_in)
+        {
+            if (hop != 0)
+            {
+                return hop;
+            }
+            if (hops_per_chunk < 1 || chunk_size_in % hops_per_chunk != 0)
+            {
+                throw new IllegalArgumentException("Chunk size must be a multiple of the number of hops per chunk.");
+            }
+            return chunk_size_in / hops_per_chunk;
+        }
+    }
     
     /**
      * Populate the spectra for a new PowerSpectrumWaterfall.
@@ -86,10 +533,165 @@ public class PowerSpectrumWaterfall {
             int num_freq_log_in,
             double freq_min,
             double freq_max)
+    {
+        this(data, sampling_frequency_in, chunk_size_in, num_freq_log_in, freq_min, freq_max, new Options());
+    }
+    
+    /**
+     * Populate the spectra for a new PowerSpectrumWaterfall, with the choices in options.
+     * Calculations are all done at instantiation time.
+     * 
+     * @param data                     Input array of short data, in arbitrary units.
+     * @param sampling_frequency_in    Sampling frequency, in Hertz, of the data.
+     * @param chunk_size_in            Number of input samples to include in a single spectra. Must be a power of 2.
+     * @param num_freq_log_in          Number of bins to use when calculating the logarithmic frequency scale.
+     * @param freq_min                 Minimum frequency to calculate for the output power spectra.
+     * @param freq_max                 Maximum frequency to calculate for the output power spectra.
+     * @param options                  How the spectra are worked out and kept.
+     */
+    public PowerSpectrumWaterfall(
+            short [] data,
+            double sampling_frequency_in,
+            int chunk_size_in,
+            int num_freq_log_in,
+            double freq_min,
+            double freq_max,
+            Options options)
+    {
+        Initialize(sampling_frequency_in, chunk_size_in, num_freq_log_in, freq_min, freq_max, options);
+        
+        // Overlapping the chunks makes for a smooth waterfall. The last ones
+        // will be padded with zeroes, the same as ChunkStream's.
+        num_chunks = ChunkStream.NumChunks(data.length, chunk_size, hop);
+        // Set up the output arrays
+        CreateStores(options, num_chunks);
+        time = new double[num_chunks];
+        row_mean = new double[num_chunks];
+        row_m2 = new double[num_chunks];
+        
+        Populate(options.pool, null, data, 0, data.length, 0, num_chunks);
+        FinishStatistics();
+        FinishStorage();
+    }
+    
+    /**
+     * Populate the spectra for a new PowerSpectrumWaterfall by pulling
+     * samples from a streaming source.
+     * <p>
+     * Only a few chunks of samples are held at a time,
+     * so memory does not grow with the length of the song.
+     * The result is identical to handing the whole song to the array constructor.
+     * 
+     * @param source             Source of the input samples, in arbitrary units.
+     * @param chunk_size_in      Number of input samples to include in a single spectra. Must be a power of 2.
+     * @param num_freq_log_in    Number of bins to use when calculating the logarithmic frequency scale.
+     * @param freq_min           Minimum frequency to calculate for the output power spectra.
+     * @param freq_max           Maximum frequency to calculate for the output power spectra.
+     */
+    public PowerSpectrumWaterfall(
+            SampleSource source,
+            int chunk_size_in,
+            int num_freq_log_in,
+            double freq_min,
+            double freq_max)
+    {
+        this(source, chunk_size_in, num_freq_log_in, freq_min, freq_max, new Options());
+    }
+    
+    /**
+     * Populate the spectra for a new PowerSpectrumWaterfall by pulling
+     * samples from a streaming source, with the choices in options.
+     * <p>
+     * In parallel, enough samples for a task per thread in the pool are
+     * held at a time.
+     * 
+     * @param source             Source of the input samples, in arbitrary units.
+     * @param chunk_size_in      Number of input samples to include in a single spectra. Must be a power of 2.
+     * @param num_freq_log_in    Number of bins to use when calculating the logarithmic frequency scale.
+     * @param freq_min           Minimum frequency to calculate for the output power spectra.
+     * @param freq_max           Maximum frequency to calculate for the output power spectra.
+     * @param options            How the spectra are worked out and kept.
+     */
+    public PowerSpectrumWaterfall(
+            SampleSource source,
+            int chunk_size_in,
+            int num_freq_log_in,
+            double freq_min,
+            double freq_max,
+            Options options)
+    {
+        Initialize(source.sampleFrequency(), chunk_size_in, num_freq_log_in, freq_min, freq_max, options);
+        ForkJoinPool pool = options.pool;
+        
+        // Output arrays grow as chunks are calculated
+        int capacity = 64;
+        CreateStores(options, capacity);
+        time = new double[capacity];
+        row_mean = new double[capacity];
+        row_m2 = new double[capacity];
+        
+        // Work through the song a block of chunks at a time: a batch,
+        // or a task for each thread
+        int block_chunks = pool == null ? batch_frames : chunks_per_task * pool.getParallelism();
+        ChunkStream chunks = new ChunkStream(source, chunk_size, hop, block_chunks, fft_size);
+        Scratch scratch = pool == null ? new Scratch(totals) : null;
+        while (chunks.Next())
+        {
+            int i = chunks.First();
+            int count = chunks.Count();
+            if (i + count > capacity)
+            {
+                capacity = Math.max(2 * capacity, i + count);
+                if (spectra != null)
+                {
+                    spectra.Resize(capacity);
+                }
+                spectra_log.Resize(capacity);
+                time = Arrays.copyOf(time, capacity);
+                row_mean = Arrays.copyOf(row_mean, capacity);
+                row_m2 = Arrays.copyOf(row_m2, capacity);
+            }
+            Populate(pool, scratch, chunks.Block(), chunks.Base(), chunks.Valid(), i, count);
+        }
+        num_chunks = chunks.NumChunks();
+        
+        if (spectra != null)
+        {
+            spectra.Resize(num_chunks);
+        }
+        spectra_log.Resize(num_chunks);
+        time = Arrays.copyOf(time, num_chunks);
+        row_mean = Arrays.copyOf(row_mean, num_chunks);
+        row_m2 = Arrays.copyOf(row_m2, num_chunks);
+        FinishStatistics();
+        FinishStorage();
+    }
+    
+    /**
+     * Helper to set up the scales and statistics shared by both constructors.
+     * 
+     * @param sampling_frequency_in    Sampling frequency, in Hertz, of the data.
+     * @param chunk_size_in            Number of input samples to include in a single spectra. Must be a power of 2.
+     * @param num_freq_log_in          Number of bins to use when calculating the logarithmic frequency scale.
+     * @param freq_min                 Minimum frequency to calculate for the output power spectra.
+     * @param freq_max                 Maximum frequency to calculate for the output power spectra.
+     * @param options                  How the spectra are worked out and kept.
+     */
+    private void Initialize(
+            double sampling_frequency_in,
+            int chunk_size_in,
+            int num_freq_log_in,
+            double freq_min,
+            double freq_max,
+            Options options)
     {
         num_freq_log = num_freq_log_in;
+        precision = options.precision;
+        storage = options.storage;
+        log_scale = options.log_scale;
+        exact_median = options.exact_median;
+        note_threshold = options.note_threshold;
         chunk_size = chunk_size_in;
-        spectra_size = chunk_size / 2;
         sampling_frequency = sampling_frequency_in;
         // Initialize statistics to junk values
         // XXX - do this more eloquently
@@ -97,8 +699,6 @@ public class PowerSpectrumWaterfall {
         min_power = 1000000.0;
         max_log_power = 0.0;
         min_log_power = 1000000.0;
-        median_log_power = -1.0;
-        stddev_log_power = -1.0;
         
         // Set the min and max for the log frequency scale
         freq_log_max = freq_max;
@@ -107,248 +707,452 @@ public class PowerSpectrumWaterfall {
         if (!FastFourierTransform.IsPowerOfTwo(chunk_size) || chunk_size < 8) {
             throw new IllegalArgumentException("Input data must be an array with a power of two length.");
         }
+        hop = options.HopFor(chunk_size);
+        if (hop < 1 || hop > chunk_size)
+        {
+            throw new IllegalArgumentException("Hop must be from 1 sample up to the chunk size.");
+        }
+        window = options.window;
+        totals = new PowerRange();
+        task_scratch = new ConcurrentLinkedQueue<Scratch>();
+        boolean fixed = precision == Precision.FIXED_16 || precision == Precision.FIXED_8;
+        if (fixed && exact_median)
+        {
+            throw new IllegalArgumentException("The exact median needs the log powers kept in floating point.");
+        }
         
         if (freq_min <= 0.0)
         {
             throw new IllegalArgumentException("Minimum frequency must be a positive, nonzero number.");
         }
         
-        // 75% overlap of the chunks makes for a smooth waterfall
-        // The last chunk will be padded with zeroes
-        num_chunks = (4 * (data.length / chunk_size)) + 1;
-        // Set up the output arrays
-        spectra = new double[num_chunks][spectra_size];
-        spectra_log = new double[num_chunks][num_freq_log];
-        
-        // Temporary arrays for calculating each spectra
-        double [] tmp_data = new double[chunk_size];
-        double [] tmp_pow = new double[spectra_size];
+        // The constant-Q bass windows set how long a frame is transformed
+        fft_size = chunk_size;
+        if (log_scale == LogScale.CONSTANT_Q)
+        {
+            fft_size = ConstantQKernel.FrameSize(chunk_size, sampling_frequency, freq_log_min, freq_log_max, num_freq_log, q_factor);
+        }
+        lead = (fft_size - chunk_size) / 2;
+        spectra_size = fft_size / 2;
         
-        // Initialize the frequency and time arrays
+        // Initialize the frequency arrays
         freq = new double[spectra_size];
         freq_log = new double[num_freq_log];
-        time = new double[num_chunks];
+        if (precision == Precision.FLOAT)
+        {
+            float_engine = new FloatFftEngine();
+        } else {
+            fft_engine = FftEngines.Default();
+        }
         
-        // Index to keep track of where we pull the source data
-        // Because the spectra overlap each other
-        int idx = 0;
-        // Iterate over each output spectra we will be calculating
-        for (int i = 0; i < num_chunks; i++)
+        // Bin j of the transform is at frequency j / (fft_size * delta)
+        for (int j = 0; j < spectra_size; j++)
         {
-            // Only moving a fraction of a chunk every step
-            time[i] = (chunk_size / 4.0) * (i / sampling_frequency_in);
-            // Populate this chunk for FFT
-            for (int j = 0; j < chunk_size; j++)
+            freq[j] = j * (sampling_frequency / fft_size);
+        }
+        
+        // Populate the log frequency array in log space
+        double max_freq_log = Math.log10(freq_log_max);
+        double min_freq_log = Math.log10(freq_log_min);
+        double delta = (max_freq_log - min_freq_log) / (freq_log.length);
+        for (int j = 0; j < freq_log.length; j++)
+        {
+            freq_log[j] = (j * delta) + min_freq_log;
+        }
+        
+        // The FFT bins that make it into the log spectra: the ones
+        // the kernels use, or the ones the mapper puts in a bin
+        if (log_scale == LogScale.CONSTANT_Q)
+        {
+            cq_kernel = ConstantQKernel.For(chunk_size, fft_size, sampling_frequency, freq_log_min, freq_log_max, num_freq_log, q_factor);
+            first_bin = cq_kernel.LowestBin();
+            last_bin = cq_kernel.HighestBin();
+        } else {
+            log_bin_mapper = new LogBinMapper(freq, freq_log_min, freq_log_max, num_freq_log, options.interpolate_empty_bins);
+            first_bin = log_bin_mapper.FirstBin();
+            last_bin = log_bin_mapper.LastBin();
+            // The constant-Q kernels have windows of their own
+            if (window != WindowFunction.RECTANGULAR)
             {
-                idx = ((i * chunk_size) / 4) + j;
-                if (idx < data.length)
-                {
-                    tmp_data[j] = (double)data[idx];
-                } else {
-                    tmp_data[j] = 0.0;
-                }
+                window_table = window.Table(chunk_size);
             }
-            
-            // Do the transform
-            double [] fft = FastFourierTransform.four1(tmp_data, FastFourierTransform.FORWARD_TRANSFORM);
-            
-            // Convert the real and imaginary parts of the FFT to a power spectrum
-            for (int j = 0; j < tmp_pow.length; j++)
+        }
+        // The sliding DFT's bins are of the bare chunk, so not with a window
+        use_sliding_dft = precision != Precision.FLOAT && window_table == null && last_bin >= first_bin
+                && SlidingDft.IsCheaper(fft_size, hop, (last_bin - first_bin) + 1);
+    }
+    
+    /**
+     * Helper to set up the empty spectra grids, shared by both constructors.
+     * Fixed point log spectra waiting on the note threshold are held as
+     * 32 bit codes, and coded again by FinishStorage().
+     * 
+     * @param options    How the spectra are kept
+     * @param rows       Number of rows to start with
+     */
+    private void CreateStores(Options options, int rows)
+    {
+        double floor = LogPowerStatistics.MinLogPower();
+        spectra = options.keep_linear
+                ? SpectraStore.Create(precision, storage, rows, spectra_size, floor, LogPowerStatistics.MaxLogPower(fft_size))
+                : null;
+        if (IsStaged())
+        {
+            spectra_log = new QuantizedSpectraStore(32, rows, num_freq_log, floor, LogPowerStatistics.MaxLogPower(chunk_size), Double.NaN);
+        } else {
+            spectra_log = SpectraStore.Create(precision, storage, rows, num_freq_log, floor, LogPowerStatistics.MaxLogPower(chunk_size));
+        }
+    }
+    
+    /**
+     * @return    Whether the log spectra are held as 32 bit codes until the note threshold is known
+     */
+    private boolean IsStaged()
+    {
+        return (precision == Precision.FIXED_16 || precision == Precision.FIXED_8) && !Double.isNaN(note_threshold);
+    }
+    
+    /**
+     * Helper to work out the chunks from first to first + count - 1,
+     * in parallel if there's a pool.
+     * 
+     * @param pool       Pool to share the chunks out over, or null
+     * @param scratch    Work space, if there's no pool
+     * @param src        Holds the samples
+     * @param base       Sample number of src[0]
+     * @param valid      Number of samples in src. Any past that are zero.
+     * @param first      First chunk to work out
+     * @param count      Number of chunks to work out
+     */
+    private void Populate(ForkJoinPool pool, Scratch scratch, short [] src, int base, int valid, int first, int count)
+    {
+        if (pool == null)
+        {
+            if (scratch == null)
+            {
+                scratch = new Scratch(totals);
+            }
+            PopulateChunks(scratch, src, base, valid, first, count);
+        } else {
+            pool.invoke(new ChunkTask(src, base, valid, first, count));
+        }
+    }
+    
+    /**
+     * Helper to work out the chunks from first to first + count - 1 on this thread,
+     * a batch at a time. The samples a batch covers are converted to double once,
+     * and each overlapping chunk is copied out of there into its slot in the batch.
+     * 
+     * @param s        Work space
+     * @param src      Holds the samples
+     * @param base     Sample number of src[0]. Negative if src starts before the song.
+     * @param valid    Number of samples in src. Any past that are zero.
+     * @param first    First chunk to work out
+     * @param count    Number of chunks to work out
+     */
+    private void PopulateChunks(Scratch s, short [] src, int base, int valid, int first, int count)
+    {
+        // Batches start on a multiple of batch_frames, however the chunks are split up
+        int end = first + count;
+        int b = first;
+        while (b < end)
+        {
+            int frames = Math.min(batch_frames - (b % batch_frames), end - b);
+            // The frames start lead samples before their chunks
+            int start = ((b * hop) - lead) - base;
+            int span = ((frames - 1) * hop) + fft_size;
+            int from = Math.min(span, Math.max(0, -start));
+            int have = Math.max(from, Math.min(span, valid - start));
+            // Before the start and past the end of the data is padded with zeroes
+            Arrays.fill(s.samples, 0, from, 0.0);
+            for (int j = from; j < have; j++)
             {
-                double real = fft[(j * 2) + 1];
-                double imag = fft[(j * 2) + 2];
-                tmp_pow[j] = Math.sqrt((real * real) + (imag * imag));
+                s.samples[j] = src[start + j];
+            }
+            Arrays.fill(s.samples, have, span, 0.0);
+            for (int f = 0; f < frames; f++)
+            {
+                LoadFrame(s, f, b + f, f * hop);
             }
             
-            // Fold over the spectrum in frequency space.
-            // zero frequency was near zero index, negative frequencies near zero are near N-1
-            for (int j = 0; j < spectra_size; j++)
+            PopulateSpectraBatch(s, b, frames);
+            b += frames;
+        }
+    }
+    
+    /**
+     * Helper to put one chunk of samples into a slot of the batch being transformed,
+     * tapered by the window if there is one.
+     * With the sliding DFT, the chunk's spectrum goes in the slot instead.
+     * 
+     * @param s         Work space. The samples are in s.samples.
+     * @param f         Slot in the batch
+     * @param i         Coarse time index of the chunk
+     * @param offset    Where the fft_size samples start
+     */
+    private void LoadFrame(Scratch s, int f, int i, int offset)
+    {
+        int start = f * (fft_size + 2);
+        if (s.sliding_dft != null)
+        {
+            // Chunks come in order, so only the samples that are new since
+            // the last one need pushing. Every chunks_per_task chunks it
+            // starts afresh, so parallel tasks get exactly the same spectra.
+            if (i % chunks_per_task == 0 || !s.sliding_dft.Started())
             {
-                freq[j] = j * (sampling_frequency / (spectra_size * 4.0));
-                
-                // Grab the raw transform points from the zero index side
-                // and from the far end of the array to calculate this single
-                // positive frequency bin.
-                if (j % 2 == 0)
-                {
-                    spectra[i][j] = tmp_pow[j / 2];
-                } else {
-                    spectra[i][j] = tmp_pow[tmp_pow.length - 1 - (j / 2)];
-                }
-                
-                // Compress the power spectrum for easier analysis
-                // Add two to avoid log(0)
-                spectra[i][j] = Math.log10(spectra[i][j] + 2);
-                
-                // Keep hunting for global max and min
-                if (max_power < spectra[i][j])
+                s.sliding_dft.Restart(s.samples, offset);
+            } else {
+                s.sliding_dft.Slide(s.samples, (offset + fft_size) - hop, hop);
+            }
+            s.sliding_dft.HalfSpectrum(s.fft_block, start);
+            return;
+        }
+        if (precision == Precision.FLOAT)
+        {
+            if (window_table == null)
+            {
+                for (int j = 0; j < fft_size; j++)
                 {
-                    max_power = spectra[i][j];
+                    s.fft_block_float[start + j] = (float)s.samples[offset + j];
                 }
-                if (min_power > spectra[i][j])
+            } else {
+                for (int j = 0; j < fft_size; j++)
                 {
-                    min_power = spectra[i][j];
+                    s.fft_block_float[start + j] = (float)(s.samples[offset + j] * window_table[j]);
                 }
             }
-            
-            // Resize the result into a log array
-            PopulateLogSpectra(i);
+        } else if (window_table == null) {
+            System.arraycopy(s.samples, offset, s.fft_block, start, fft_size);
+        } else {
+            for (int j = 0; j < fft_size; j++)
+            {
+                s.fft_block[start + j] = s.samples[offset + j] * window_table[j];
+            }
         }
     }
     
     /**
-     * Helper to calculate the log frequency/log power array.
+     * Helper to calculate a batch of consecutive spectra and their log spectra.
+     * The caller loads the samples with LoadFrame() first.
+     * The engine transforms the whole batch together, unless the sliding
+     * DFT already has. Doesn't allocate anything.
      * 
-     * @param chunk_num    Coarse time index in the spectra array.
+     * @param s         Work space
+     * @param first     Coarse time index of the first spectra in the batch
+     * @param frames    Number of spectra in the batch
      */
-    private void PopulateLogSpectra(int chunk_num)
+    private void PopulateSpectraBatch(Scratch s, int first, int frames)
     {
-        double [] source = spectra[chunk_num];
-        // keep track of the number of data from source that get binned
-        // into the spectra_log column so we can normalize it out later
-        double [] freq_log_counter = new double[freq_log.length];
-        
-        // Convert our bounds into log frequency space
-        double max_freq_log = Math.log10(freq_log_max);
-        double min_freq_log = Math.log10(freq_log_min);
-        // Delta in log frequency space - needed to do a linear
-        // interpolation in log space
-        double delta = (max_freq_log - min_freq_log) / (freq_log.length);
+        // Do the transforms in place. The input is real, so only the
+        // non-negative frequencies come back.
+        int stride = fft_size + 2;
+        if (precision == Precision.FLOAT)
+        {
+            float_engine.RealForwardBatch(s.fft_block_float, fft_size, frames, stride);
+        } else if (s.sliding_dft == null) {
+            fft_engine.RealForwardBatch(s.fft_block, fft_size, frames, stride);
+        }
         
-        // Populate the new frequency array in log space
-        for (int j = 0; j < freq_log.length; j++)
+        for (int f = 0; f < frames; f++)
         {
-            freq_log[j] = (j * delta) + min_freq_log;
+            // Convert the real and imaginary parts of the FFT to a power spectrum,
+            // compressed for easier analysis. The engine may do several bins at once.
+            if (precision == Precision.FLOAT)
+            {
+                float_engine.LogMagnitude(s.fft_block_float, f * stride, s.spectra_row, spectra_size);
+            } else if (s.sliding_dft != null) {
+                fft_engine.LogMagnitude(s.fft_block, (f * stride) + (2 * first_bin), s.spectra_row, first_bin, (last_bin - first_bin) + 1);
+            } else {
+                fft_engine.LogMagnitude(s.fft_block, f * stride, s.spectra_row, 0, spectra_size);
+            }
+            // Constant-Q log spectra come straight from the half spectrum
+            if (cq_kernel != null)
+            {
+                if (precision == Precision.FLOAT)
+                {
+                    cq_kernel.Apply(s.fft_block_float, f * stride, s.log_row);
+                } else {
+                    cq_kernel.Apply(s.fft_block, f * stride, s.log_row);
+                }
+            }
+            FinishOneSpectra(s, first + f);
         }
+    }
+    
+    /**
+     * Helper to turn the spectra in s.spectra_row into its log spectra, and store them both.
+     * For CONSTANT_Q the log spectra are already in s.log_row.
+     * 
+     * @param s           Work space
+     * @param i           Coarse time index in the spectra array.
+     */
+    private void FinishOneSpectra(Scratch s, int i)
+    {
+        // Only moving a fraction of a chunk every step
+        time[i] = hop * (i / sampling_frequency);
         
-        // For each data in the source, find the appropriate bin
-        // in freq_log and spectra_log
-        double tmp = 0.0;
-        int bin = 0;
-        for (int j = 0; j < source.length; j++)
+        PowerRange range = s.range;
+        double [] spectra_row = s.spectra_row;
+        for (int j = 0; j < spectra_size; j++)
         {
-            // Shouldn't happen
-            if (freq[j] <= 0.0)
+            // Keep hunting for max and min
+            if (range.max_power < spectra_row[j])
             {
-                continue;
+                range.max_power = spectra_row[j];
             }
-            // Calculate the correct bin
-            tmp = Math.log10(freq[j]);
-            bin = (int)((tmp - min_freq_log)/delta);
-            // If this data fits in a bin, add it and bump the counter
-            if (bin >= 0 && bin < freq_log.length)
+            if (range.min_power > spectra_row[j])
             {
-                spectra_log[chunk_num][bin] += source[j];
-                freq_log_counter[bin] += 1;
+                range.min_power = spectra_row[j];
             }
         }
         
-
-        // Keeps track of the first non-zero log spectra value
-        // Lower frequency bins may be empty, and that looks "bad"
-        // so we'll just fill them in with the nearest neighbor
-        double first_nonzero = 0.0;
-        // Now normalize the values based on the count per bin
-        for (int j = 0; j < freq_log_counter.length; j++)
-        {
-            if (freq_log_counter[j] > 1) {
-                spectra_log[chunk_num][j] /= freq_log_counter[j];
-                if (max_log_power < spectra_log[chunk_num][j])
+        if (cq_kernel == null)
+        {
+            // Resize the result into a log array
+            PopulateLogSpectra(s, i);
+        } else {
+            for (int j = 0; j < num_freq_log; j++)
+            {
+                if (range.max_log_power < s.log_row[j])
                 {
-                    max_log_power = spectra_log[chunk_num][j];
+                    range.max_log_power = s.log_row[j];
                 }
-                if (min_log_power > spectra_log[chunk_num][j])
+                if (range.min_log_power > s.log_row[j])
                 {
-                    min_log_power = spectra_log[chunk_num][j];
+                    range.min_log_power = s.log_row[j];
                 }
             }
-            
-            // Populate our "fill in" value that's nearest to zero frequency
-            if (first_nonzero == 0.0 && spectra_log[chunk_num][j] != 0.0)
-            {
-                first_nonzero = spectra_log[chunk_num][j];
-            }
         }
         
-        // Fill in missing values with the nearest neighbor
-        for (int j = 0; j < freq_log_counter.length; j++)
+        if (spectra != null)
         {
-            if (spectra_log[chunk_num][j] == 0.0)
-            {
-                spectra_log[chunk_num][j] = first_nonzero;
-            } else
-            {
-                // Reset the nearest neighbor higher up the frequency scale
-                first_nonzero = spectra_log[chunk_num][j];
-            }
+            spectra.SetRow(i, spectra_row);
         }
+        spectra_log.SetRow(i, s.log_row);
         
+        // Statistics are of the log spectra as FLOAT keeps them. The fixed
+        // point precisions' are of the log powers before they're coded,
+        // so their statistics, and threshold, are the same as DOUBLE's.
+        double [] kept = s.log_row;
+        if (precision == Precision.FLOAT)
+        {
+            spectra_log.GetRow(i, s.kept_row);
+            kept = s.kept_row;
+        }
+        double sum = 0.0;
+        for (int j = 0; j < num_freq_log; j++)
+        {
+            sum += kept[j];
+        }
+        double mean = sum / num_freq_log;
+        double m2 = 0.0;
+        for (int j = 0; j < num_freq_log; j++)
+        {
+            m2 += (kept[j] - mean) * (kept[j] - mean);
+            range.histogram.Add(kept[j]);
+        }
+        row_mean[i] = mean;
+        row_m2[i] = m2;
     }
     
     /**
-     * @return    Median power of the log spectra grid
+     * Helper to calculate the log frequency/log power array,
+     * from s.spectra_row into s.log_row.
+     * 
+     * @param s            Work space
+     * @param chunk_num    Coarse time index in the spectra array.
      */
-    public double GetMedianLogPower()
+    private void PopulateLogSpectra(Scratch s, int chunk_num)
     {
-        // Don't calculate this more than once
-        if (median_log_power > 0.0)
+        double [] dest = s.log_row;
+        PowerRange range = s.range;
+        log_bin_mapper.Apply(s.spectra_row, dest);
+        
+        // Only the bins that average several FFT bins count towards the range
+        for (int j : log_bin_mapper.AveragedBins())
         {
-            return median_log_power;
+            if (range.max_log_power < dest[j])
+            {
+                range.max_log_power = dest[j];
+            }
+            if (range.min_log_power > dest[j])
+            {
+                range.min_log_power = dest[j];
+            }
         }
-        // Calculate the median by shoving
-        // all the values into a big list, sorting, and picking the middle
-        List<Double> tmp = ListifyLogGrid();
-        Collections.sort(tmp);
-        median_log_power = tmp.get((spectra_log[0].length * spectra_log.length) / 2);
-        
-        return median_log_power;
     }
     
     /**
-     * @return    The standard deviation of the log spectra grid
+     * Helper to gather up the powers seen, and work out the median and
+     * standard deviation, once every chunk is in, from what was gathered
+     * as each one was stored.
+     * Only the exact median goes back over the grid.
      */
-    public double GetStdDevLogPower()
+    private void FinishStatistics()
     {
-        // Don't calculate this more than once
-        if (stddev_log_power > 0.0)
+        // On this thread the chunks are already in the totals.
+        // The parallel tasks' work spaces are merged in once.
+        for (Scratch s : task_scratch)
         {
-            return stddev_log_power;
+            totals.Merge(s.range);
         }
+        task_scratch.clear();
+        max_power = totals.max_power;
+        min_power = totals.min_power;
+        max_log_power = totals.max_log_power;
+        min_log_power = totals.min_log_power;
         
-        // Calculate the median by shoving all the values into a big list
-        // and running the stddev calculation
-        List<Double> tmp = ListifyLogGrid();
-        double mean = 0.0;
-        for (Double d : tmp)
+        stddev_log_power = LogPowerStatistics.StdDev(row_mean, row_m2, num_chunks, num_freq_log);
+        if (exact_median)
         {
-            mean += d;
+            median_log_power = totals.histogram.ExactMedian(spectra_log::GetRow, num_chunks, num_freq_log);
+        } else {
+            median_log_power = totals.histogram.Median();
         }
-        mean /= tmp.size();
-        
-        double variance = 0.0;
-        for (Double d : tmp)
-        {
-            variance += (mean - d)*(mean - d);
-        }
-        variance /= tmp.size();
-        stddev_log_power = Math.sqrt(variance);
-        return stddev_log_power;
     }
     
     /**
-     * @return    List representation of the log spectra grid.
+     * Helper to code the log spectra held as 32 bit codes again for
+     * FIXED_16 or FIXED_8, once every chunk is in and the note threshold
+     * is known, over the range their values took. The 32 bit codes are
+     * let go once it's done.
      */
-    private List<Double> ListifyLogGrid()
+    private void FinishStorage()
     {
-        List<Double> tmp = new ArrayList<Double>(spectra_log[0].length * spectra_log.length);
-        for (int i = 0; i < spectra_log.length; i++)
+        if (!IsStaged())
         {
-            for (int j = 0; j < spectra_log[0].length; j++)
-            {
-                tmp.add(spectra_log[i][j]);
-            }
+            return;
         }
-        return tmp;
+        int bits = precision == Precision.FIXED_16 ? 16 : 8;
+        staged_step = spectra_log.Step();
+        // Worked out just as WaterfallToGrid does, to the last bit
+        double midpoint = median_log_power + (note_threshold * stddev_log_power);
+        spectra_log = QuantizedSpectraStore.Fit(bits, spectra_log, totals.histogram.Lowest(), totals.histogram.Highest(), midpoint);
+    }
+    
+    /**
+     * Worked out from a histogram of the log powers gathered as each chunk
+     * was stored, so it doesn't read the grid. It's within the width of a
+     * slice, (log10(32768 * chunk size + 2) - log10(2)) / 16384, of the
+     * true median, and exact if Options.SetExactMedian() was used.
+     * For FIXED_16 and FIXED_8 it's of the log powers before they were
+     * coded, so it's the same as for DOUBLE. So is the standard deviation.
+     * 
+     * @return    Median power of the log spectra grid
+     */
+    public double GetMedianLogPower()
+    {
+        return median_log_power;
+    }
+    
+    /**
+     * Worked out from the mean and spread of each chunk, gathered as it was stored.
+     * 
+     * @return    The standard deviation of the log spectra grid
+     */
+    public double GetStdDevLogPower()
+    {
+        return stddev_log_power;
     }
     
     /**
@@ -359,6 +1163,94 @@ public class PowerSpectrumWaterfall {
         return num_freq_log;
     }
     
+    /**
+     * @return    Precision of the transforms and the stored spectra
+     */
+    public Precision GetPrecision()
+    {
+        return precision;
+    }
+    
+    /**
+     * @return    How the log spectra are worked out
+     */
+    public LogScale GetLogScale()
+    {
+        return log_scale;
+    }
+    
+    /**
+     * How finely the log spectra are kept. For FIXED_16 and FIXED_8 a
+     * stored log power is within half of this of the one worked out,
+     * plus GetNoteThresholdTolerance() if that's not zero.
+     * 
+     * @return    Spacing of the levels log powers are kept at, or 0 if they're kept in floating point
+     */
+    public double GetLogPowerStep()
+    {
+        return spectra_log.Step();
+    }
+    
+    /**
+     * How far a log power may be from the note threshold and still be
+     * stored on the other side of it, for FIXED_16 and FIXED_8 with
+     * Options.SetNoteThreshold(): half a step of the 32 bit codes it was
+     * held in until the threshold was known.
+     * 
+     * @return    The tolerance, or 0 if the levels aren't placed around the note threshold
+     */
+    public double GetNoteThresholdTolerance()
+    {
+        return staged_step / 2.0;
+    }
+    
+    /**
+     * @return    Number of standard deviations above the median the fixed point
+     *            levels are placed around, see Options.SetNoteThreshold(), or NaN if
+     *            they aren't, or the log powers are kept in floating point
+     */
+    public double GetNoteThreshold()
+    {
+        return spectra_log.Step() > 0.0 ? note_threshold : Double.NaN;
+    }
+    
+    /**
+     * @return    Number of samples from the start of one chunk to the start of the next
+     */
+    public int GetHop()
+    {
+        return hop;
+    }
+    
+    /**
+     * @return    Window each chunk is tapered with. CONSTANT_Q doesn't use it.
+     */
+    public WindowFunction GetWindow()
+    {
+        return window;
+    }
+    
+    /**
+     * @return    Where the stored spectra are kept
+     */
+    public Storage GetStorage()
+    {
+        return storage;
+    }
+    
+    /**
+     * @return    Approximate number of bytes taken by the spectra grids kept
+     */
+    public long GetStorageBytes()
+    {
+        long bytes = spectra_log.Bytes();
+        if (spectra != null)
+        {
+            bytes += spectra.Bytes();
+        }
+        return bytes;
+    }
+    
     /**
      * @return    Number of coarse time steps in the spectra grid
      */
@@ -375,7 +1267,42 @@ public class PowerSpectrumWaterfall {
      */
     public double[] GetOneLogSpectra(int i)
     {
-        return spectra_log[i].clone();
+        double [] ret = new double[num_freq_log];
+        spectra_log.GetRow(i, ret);
+        return ret;
+    }
+    
+    /**
+     * Copies one log spectra into the caller's array, so a loop over
+     * the grid can reuse one array instead of allocating a row each time.
+     * 
+     * @param i      Index of the spectra
+     * @param out    Where it goes, at least GetSpectraLogSize() long
+     */
+    public void GetOneLogSpectra(int i, double [] out)
+    {
+        spectra_log.GetRow(i, out);
+    }
+    
+    /**
+     * Copies one log frequency bin, over the whole of time, into the caller's array.
+     * 
+     * @param j      Index in the logarithmic frequency scale
+     * @param out    Where its value at each time goes, at least GetNumChunks() long
+     */
+    public void GetLogPowerOverTime(int j, double [] out)
+    {
+        spectra_log.GetColumn(j, out);
+    }
+    
+    /**
+     * @param i    Index of the spectra
+     * @param j    Index in the logarithmic frequency scale
+     * @return     Log power there
+     */
+    public double GetLogPower(int i, int j)
+    {
+        return spectra_log.Get(i, j);
     }
     
     /**
@@ -0,0 +1,255 @@
+package main.java.com.branchy.libmath;
+
+import java.util.Arrays;
+
+/** Spectra kept as 32, 16 or 8 bit fixed point codes: a half, a quarter or an eighth of the memory of doubles.
+ * <p>
+ * The values are log10 of magnitudes, which fall in a narrow range, so
+ * each one is kept as the nearest of evenly spaced levels across that
+ * range, and turned back into a double when it's read. A value read
+ * back is never more than half a step from the one set. Values outside
+ * the range are clamped to it. 32 bit codes have steps of a few
+ * billionths, and hold the rows while a waterfall is built when the
+ * final levels can't be placed until every row is in, see Fit().
+ * <p>
+ * The levels can also be slid, by less than a step, so that one value,
+ * the midpoint, falls exactly halfway between two of them. A value read
+ * back is then above the midpoint exactly when the one set was, however
+ * coarse the steps. The waterfall puts its note threshold there.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+class QuantizedSpectraStore extends SpectraStore {
+
+    /**
+     * Code of value (i, j) is at codes[(i * columns) + j], in whichever
+     * of these fits the number of bits. All are read as unsigned.
+     */
+    private int [] codes_32;
+    private short [] codes_16;
+    private byte [] codes_8;
+    private int rows;
+    private int columns;
+
+    /**
+     * Value of code c is offset + (c * step), for c from 0 to levels
+     */
+    private long levels;
+    private double offset;
+    private double step;
+    private double inv_step;
+
+    /**
+     * Codes every row of another store again, over the range the values
+     * take. Read from 32 bit codes, the values are off by the other
+     * store's half step, as well as this one's.
+     *
+     * @param bits         Bits in a code, 16 or 8
+     * @param values       The values
+     * @param min_value    Lowest of them
+     * @param max_value    Highest of them
+     * @param midpoint     Value to fall halfway between two levels, or NaN for none
+     * @return             The values, coded
+     */
+    static QuantizedSpectraStore Fit(int bits, SpectraStore values, double min_value, double max_value, double midpoint)
+    {
+        if (!(max_value > min_value))
+        {
+            // All one value. Any step keeps it.
+            max_value = min_value + 1.0;
+        }
+        QuantizedSpectraStore q = new QuantizedSpectraStore(bits, values.Rows(), values.Columns(), min_value, max_value, midpoint);
+        double [] row = new double[values.Columns()];
+        for (int i = 0; i < values.Rows(); i++)
+        {
+            values.GetRow(i, row);
+            q.SetRow(i, row);
+        }
+        return q;
+    }
+
+    /**
+     * @param bits         Bits in a code, 32, 16 or 8
+     * @param num_rows     Number of rows to start with
+     * @param columns_in   Number of values in a row
+     * @param min_value    Lowest value to be kept
+     * @param max_value    Highest value to be kept
+     * @param midpoint     Value to fall halfway between two levels, or NaN for none
+     */
+    QuantizedSpectraStore(int bits, int num_rows, int columns_in, double min_value, double max_value, double midpoint)
+    {
+        if (bits != 32 && bits != 16 && bits != 8)
+        {
+            throw new IllegalArgumentException("Fixed point spectra must be 32, 16 or 8 bits.");
+        }
+        if (!(max_value > min_value))
+        {
+            throw new IllegalArgumentException("Range of fixed point spectra must not be empty.");
+        }
+        columns = columns_in;
+        rows = num_rows;
+        levels = (1L << bits) - 1;
+        offset = min_value;
+        if (Double.isNaN(midpoint))
+        {
+            step = (max_value - min_value) / levels;
+        } else {
+            // Keep a level spare, so sliding the levels down by up to a
+            // step still leaves the top one at or above max_value
+            step = (max_value - min_value) / (levels - 1);
+            double from_level = ((midpoint - min_value) / step) - 0.5;
+            offset = min_value - ((Math.ceil(from_level) - from_level) * step);
+        }
+        inv_step = 1.0 / step;
+        if (bits == 32)
+        {
+            codes_32 = new int[FlatLength(rows, columns)];
+        } else if (bits == 16) {
+            codes_16 = new short[FlatLength(rows, columns)];
+        } else {
+            codes_8 = new byte[FlatLength(rows, columns)];
+        }
+    }
+
+    @Override
+    double Step()
+    {
+        return step;
+    }
+
+    /**
+     * Helper to turn a value into its nearest code. One exactly halfway
+     * between two levels goes to the lower, so a value at the midpoint
+     * isn't read back above it.
+     *
+     * @param value    The value
+     * @return         Its code, from 0 to levels
+     */
+    private long Encode(double value)
+    {
+        double c = Math.ceil(((value - offset) * inv_step) - 0.5);
+        if (c <= 0.0)
+        {
+            return 0;
+        }
+        if (c >= levels)
+        {
+            return levels;
+        }
+        return (long)c;
+    }
+
+    @Override
+    int Rows()
+    {
+        return rows;
+    }
+
+    @Override
+    int Columns()
+    {
+        return columns;
+    }
+
+    @Override
+    void Resize(int num_rows)
+    {
+        if (codes_32 != null)
+        {
+            codes_32 = Arrays.copyOf(codes_32, FlatLength(num_rows, columns));
+        } else if (codes_16 != null) {
+            codes_16 = Arrays.copyOf(codes_16, FlatLength(num_rows, columns));
+        } else {
+            codes_8 = Arrays.copyOf(codes_8, FlatLength(num_rows, columns));
+        }
+        rows = num_rows;
+    }
+
+    @Override
+    void SetRow(int i, double [] row)
+    {
+        int base = i * columns;
+        if (codes_32 != null)
+        {
+            for (int j = 0; j < columns; j++)
+            {
+                codes_32[base + j] = (int)Encode(row[j]);
+            }
+        } else if (codes_16 != null) {
+            for (int j = 0; j < columns; j++)
+            {
+                codes_16[base + j] = (short)Encode(row[j]);
+            }
+        } else {
+            for (int j = 0; j < columns; j++)
+            {
+                codes_8[base + j] = (byte)Encode(row[j]);
+            }
+        }
+    }
+
+    @Override
+    void GetRow(int i, double [] out)
+    {
+        int base = i * columns;
+        if (codes_32 != null)
+        {
+            for (int j = 0; j < columns; j++)
+            {
+                out[j] = offset + ((codes_32[base + j] & 0xFFFFFFFFL) * step);
+            }
+        } else if (codes_16 != null) {
+            for (int j = 0; j < columns; j++)
+            {
+                out[j] = offset + ((codes_16[base + j] & 0xFFFF) * step);
+            }
+        } else {
+            for (int j = 0; j < columns; j++)
+            {
+                out[j] = offset + ((codes_8[base + j] & 0xFF) * step);
+            }
+        }
+    }
+
+    @Override
+    void GetColumn(int j, double [] out)
+    {
+        for (int i = 0; i < rows; i++)
+        {
+            out[i] = Get(i, j);
+        }
+    }
+
+    @Override
+    double Get(int i, int j)
+    {
+        int k = (i * columns) + j;
+        if (codes_32 != null)
+        {
+            return offset + ((codes_32[k] & 0xFFFFFFFFL) * step);
+        }
+        if (codes_16 != null)
+        {
+            return offset + ((codes_16[k] & 0xFFFF) * step);
+        }
+        return offset + ((codes_8[k] & 0xFF) * step);
+    }
+
+    @Override
+    long Bytes()
+    {
+        if (codes_32 != null)
+        {
+            return (long)codes_32.length * Integer.BYTES;
+        }
+        if (codes_16 != null)
+        {
+            return (long)codes_16.length * Short.BYTES;
+        }
+        return codes_8.length;
+    }
+
+}
@@ -0,0 +1,44 @@
+package main.java.com.branchy.libmath;
+
+/** Radix-2 transforms using the shared FftPlan tables.
+ * <p>
+ * Same butterflies as the Numerical Recipes code,
+ * with table twiddles and no allocation.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class Radix2FftEngine implements FftEngine {
+
+    @Override
+    public String Name()
+    {
+        return "radix2";
+    }
+
+    @Override
+    public void ComplexInPlace(double [] data, int n, int isign)
+    {
+        FftPlan.ForSize(n).ComplexInPlace(data, isign);
+    }
+
+    @Override
+    public void RealInPlace(double [] data, int n, int isign)
+    {
+        FftPlan.ForSize(n).RealInPlace(data, isign);
+    }
+
+    @Override
+    public void RealForwardBatch(double [] block, int n, int frames, int stride)
+    {
+        FftPlan plan = FftPlan.ForSize(n);
+        FftEngines.CheckBatch(block, n, frames, stride);
+        for (int f = 0; f < frames; f++)
+        {
+            plan.RealInPlace(block, f * stride, FastFourierTransform.FORWARD_TRANSFORM);
+        }
+    }
+
+}
@@ -0,0 +1,251 @@
+package main.java.com.branchy.libmath;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** Radix-4 transforms: two radix-2 stages at a time.
+ * <p>
+ * Starts from bit reversed input, like the radix-2 code, then does each
+ * pair of stages as one pass of radix-4 butterflies. A radix-4 butterfly
+ * needs three complex multiplies for four points where two radix-2 stages
+ * need four, and it makes half as many passes over the data.
+ * Within a pass the butterflies go block by block with the twiddles laid
+ * out in the order they're used, so memory is walked front to back.
+ * If the number of stages is odd, the first stage is a plain radix-2 one,
+ * which needs no multiplies at all.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class Radix4FftEngine implements FftEngine {
+
+    /**
+     * Twiddle tables for one size of complex transform
+     */
+    private static class Tables {
+        /**
+         * True if the first stage is done on its own as radix-2
+         */
+        final boolean radix2_first;
+
+        /**
+         * Block size of each radix-4 pass, in complex values
+         */
+        final int [] block_sizes;
+
+        /**
+         * Twiddles for each pass. For butterfly k of a block of size B:
+         * cos and sin of 2 pi m k / B for m = 1, 2, 3, in that order.
+         */
+        final double [][] twiddles;
+
+        Tables(int nn)
+        {
+            int stages = Integer.numberOfTrailingZeros(nn);
+            radix2_first = (stages % 2) == 1;
+            int num_passes = stages / 2;
+            block_sizes = new int[num_passes];
+            twiddles = new double[num_passes][];
+            int block = radix2_first ? 8 : 4;
+            for (int p = 0; p < num_passes; p++)
+            {
+                int quarter = block / 4;
+                double [] tw = new double[6 * quarter];
+                for (int k = 0; k < quarter; k++)
+                {
+                    for (int m = 1; m <= 3; m++)
+                    {
+                        double theta = (2.0 * Math.PI * m * k) / block;
+                        tw[(6 * k) + (2 * (m - 1))] = Math.cos(theta);
+                        tw[(6 * k) + (2 * (m - 1)) + 1] = Math.sin(theta);
+                    }
+                }
+                block_sizes[p] = block;
+                twiddles[p] = tw;
+                block *= 4;
+            }
+        }
+    }
+
+    /**
+     * One set of tables per complex transform size, shared by everyone,
+     * at the size's power of two so looking them up doesn't box the size
+     */
+    private static final AtomicReferenceArray<Tables> tables = new AtomicReferenceArray<Tables>(32);
+
+    @Override
+    public String Name()
+    {
+        return "radix4";
+    }
+
+    @Override
+    public void ComplexInPlace(double [] data, int n, int isign)
+    {
+        FftPlan plan = FftPlan.ForSize(n);
+        if (data.length < n)
+        {
+            throw new IllegalArgumentException("Input data must be an array of length " + n + ".");
+        }
+        plan.BitReverse(data, 0);
+        Butterflies(data, n, 1, 0, TablesFor(n), isign);
+    }
+
+    @Override
+    public void RealInPlace(double [] data, int n, int isign)
+    {
+        FftPlan plan = FftPlan.ForSize(n);
+        if (data.length < n + 2)
+        {
+            throw new IllegalArgumentException("Input data must be an array of length " + (n + 2) + ".");
+        }
+        if (isign == FastFourierTransform.FORWARD_TRANSFORM)
+        {
+            ComplexInPlace(data, n, isign);
+            plan.Untangle(data, 0, isign);
+            plan.PackEnds(data, 0);
+            return;
+        }
+
+        plan.UnpackEnds(data, 0);
+        plan.Untangle(data, 0, isign);
+        ComplexInPlace(data, n, isign);
+        data[n] = 0.0;
+        data[n + 1] = 0.0;
+    }
+
+    @Override
+    public void RealForwardBatch(double [] block, int n, int frames, int stride)
+    {
+        FftPlan plan = FftPlan.ForSize(n);
+        FftEngines.CheckBatch(block, n, frames, stride);
+        int isign = FastFourierTransform.FORWARD_TRANSFORM;
+        for (int f = 0; f < frames; f++)
+        {
+            plan.BitReverse(block, f * stride);
+        }
+        Butterflies(block, n, frames, stride, TablesFor(n), isign);
+        for (int f = 0; f < frames; f++)
+        {
+            plan.Untangle(block, f * stride, isign);
+            plan.PackEnds(block, f * stride);
+        }
+    }
+
+    /**
+     * @param n    Number of doubles in the complex transform
+     * @return     The shared tables for it
+     */
+    private static Tables TablesFor(int n)
+    {
+        int nn = n / 2;
+        int k = Integer.numberOfTrailingZeros(nn);
+        Tables t = tables.get(k);
+        if (t == null)
+        {
+            synchronized (tables)
+            {
+                t = tables.get(k);
+                if (t == null)
+                {
+                    t = new Tables(nn);
+                    tables.set(k, t);
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * All the butterflies of complex transforms of bit reversed input.
+     * With several frames, each pass is done on every frame before the next
+     * pass starts, so its twiddles stay in cache for the whole batch.
+     *
+     * @param data      The frames
+     * @param n         Number of doubles in one frame's transform
+     * @param frames    Number of frames
+     * @param stride    Distance from the start of one frame to the next
+     * @param t         Tables for the transform size
+     * @param isign     Direction of the transform
+     */
+    private static void Butterflies(double [] data, int n, int frames, int stride, Tables t, int isign)
+    {
+        if (t.radix2_first)
+        {
+            for (int f = 0; f < frames; f++)
+            {
+                int end = (f * stride) + n;
+                for (int a = f * stride; a < end; a += 4)
+                {
+                    double tr = data[a + 2];
+                    double ti = data[a + 3];
+                    data[a + 2] = data[a] - tr;
+                    data[a + 3] = data[a + 1] - ti;
+                    data[a] += tr;
+                    data[a + 1] += ti;
+                }
+            }
+        }
+
+        for (int p = 0; p < t.block_sizes.length; p++)
+        {
+            int block = t.block_sizes[p];
+            // Distance between the four points of a butterfly, in doubles
+            int step = block / 2;
+            double [] tw = t.twiddles[p];
+            for (int f = 0; f < frames; f++)
+            {
+                int end = (f * stride) + n;
+                for (int base = f * stride; base < end; base += 2 * block)
+                {
+                    for (int k = 0, w = 0; w < tw.length; k += 2, w += 6)
+                    {
+                        int i0 = base + k;
+                        int i1 = i0 + step;
+                        int i2 = i1 + step;
+                        int i3 = i2 + step;
+
+                        double w1r = tw[w];
+                        double w1i = isign * tw[w + 1];
+                        double w2r = tw[w + 2];
+                        double w2i = isign * tw[w + 3];
+                        double w3r = tw[w + 4];
+                        double w3i = isign * tw[w + 5];
+
+                        // After bit reversal, the point at i1 belongs with the
+                        // double angle twiddle and the one at i2 with the single
+                        double ar = data[i0];
+                        double ai = data[i0 + 1];
+                        double br = (w2r * data[i1]) - (w2i * data[i1 + 1]);
+                        double bi = (w2r * data[i1 + 1]) + (w2i * data[i1]);
+                        double cr = (w1r * data[i2]) - (w1i * data[i2 + 1]);
+                        double ci = (w1r * data[i2 + 1]) + (w1i * data[i2]);
+                        double dr = (w3r * data[i3]) - (w3i * data[i3 + 1]);
+                        double di = (w3r * data[i3 + 1]) + (w3i * data[i3]);
+
+                        double s0r = ar + br;
+                        double s0i = ai + bi;
+                        double s1r = ar - br;
+                        double s1i = ai - bi;
+                        double s2r = cr + dr;
+                        double s2i = ci + di;
+                        // (c - d) rotated a quarter turn in the direction of the transform
+                        double s3r = -isign * (ci - di);
+                        double s3i = isign * (cr - dr);
+
+                        data[i0] = s0r + s2r;
+                        data[i0 + 1] = s0i + s2i;
+                        data[i2] = s0r - s2r;
+                        data[i2 + 1] = s0i - s2i;
+                        data[i1] = s1r + s3r;
+                        data[i1 + 1] = s1i + s3i;
+                        data[i3] = s1r - s3r;
+                        data[i3 + 1] = s1i - s3i;
+                    }
+                }
+            }
+        }
+    }
+
+}
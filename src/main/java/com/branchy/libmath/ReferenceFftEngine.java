@@ -0,0 +1,63 @@
+package main.java.com.branchy.libmath;
+
+/** The original Numerical Recipes transforms, behind the FftEngine interface.
+ * <p>
+ * Slow: every call allocates and runs the twiddle recurrence.
+ * It's here as the yardstick the other engines are checked against.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class ReferenceFftEngine implements FftEngine {
+
+    @Override
+    public String Name()
+    {
+        return "reference";
+    }
+
+    @Override
+    public void ComplexInPlace(double [] data, int n, int isign)
+    {
+        double [] in = new double[n];
+        System.arraycopy(data, 0, in, 0, n);
+        // four1() returns a 1-based array
+        double [] out = FastFourierTransform.four1(in, isign);
+        System.arraycopy(out, 1, data, 0, n);
+    }
+
+    @Override
+    public void RealInPlace(double [] data, int n, int isign)
+    {
+        if (isign == FastFourierTransform.FORWARD_TRANSFORM)
+        {
+            double [] in = new double[n];
+            System.arraycopy(data, 0, in, 0, n);
+            double [] out = FastFourierTransform.realft(in, isign);
+            System.arraycopy(out, 0, data, 0, n + 2);
+            return;
+        }
+        double [] in = new double[n + 2];
+        System.arraycopy(data, 0, in, 0, n + 2);
+        double [] out = FastFourierTransform.realft(in, isign);
+        System.arraycopy(out, 0, data, 0, n);
+        data[n] = 0.0;
+        data[n + 1] = 0.0;
+    }
+
+    @Override
+    public void RealForwardBatch(double [] block, int n, int frames, int stride)
+    {
+        FftEngines.CheckBatch(block, n, frames, stride);
+        double [] in = new double[n];
+        for (int f = 0; f < frames; f++)
+        {
+            System.arraycopy(block, f * stride, in, 0, n);
+            double [] out = FastFourierTransform.realft(in, FastFourierTransform.FORWARD_TRANSFORM);
+            System.arraycopy(out, 0, block, f * stride, n + 2);
+        }
+    }
+
+}
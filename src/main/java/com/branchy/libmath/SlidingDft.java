@@ -0,0 +1,177 @@
+package main.java.com.branchy.libmath;
+
+/** Keeps a few bins of the transform of the latest n samples up to date, a sample at a time.
+ * <p>
+ * When the window moves on by one sample, each bin only needs the sample
+ * that left and the one that arrived: X'[k] = (X[k] - x_old + x_new) exp(-2 pi i k / n).
+ * That is O(1) work per bin per sample, so moving on by a hop of h samples
+ * costs h times the number of bins kept, against O(n log n) for a fresh
+ * transform. With a small hop and a narrow band of bins this is much less.
+ * The bins are updated together, one sample at a time, so the JIT can
+ * vectorize across them.
+ * <p>
+ * Every update adds a little rounding error, and the error never goes
+ * away on its own. So every so often the caller should Restart(), which
+ * throws the bins away and works them out afresh with the FFT.
+ * <p>
+ * Bins are in the same convention as FftEngine.RealInPlace(), for
+ * the window with its oldest sample first.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class SlidingDft {
+
+    /**
+     * The sliding update is used when it takes fewer than this many
+     * bin updates per FFT butterfly it saves: about how many bin updates
+     * cost the same as one butterfly.
+     */
+    private static double breakEven = 2.5;
+
+    private FftEngine engine;
+    private int n;
+    private int first_bin;
+    private int num_bins;
+
+    /**
+     * The bins, and what each is turned by when the window moves on: exp(-2 pi i k / n)
+     */
+    private double [] bin_re;
+    private double [] bin_im;
+    private double [] turn_re;
+    private double [] turn_im;
+
+    /**
+     * The latest n samples. The oldest is at ring[oldest], and they
+     * wrap around from the end to the start.
+     */
+    private double [] ring;
+    private int oldest;
+    private boolean started;
+
+    /**
+     * Work space for the fresh transforms
+     */
+    private double [] scratch;
+
+    /**
+     * Whether keeping bins up to date is cheaper than transforming each window.
+     *
+     * @param n           Window length
+     * @param hop         Samples between windows
+     * @param num_bins    Number of bins to keep
+     * @return            True if SlidingDft is the cheaper way
+     */
+    public static boolean IsCheaper(int n, int hop, int num_bins)
+    {
+        double butterflies = (n / 2.0) * (Math.log(n) / Math.log(2.0));
+        return ((double)hop * num_bins) < breakEven * butterflies;
+    }
+
+    /**
+     * Restart() has to be called before the first Slide().
+     *
+     * @param engine_in     Engine for the fresh transforms
+     * @param n_in          Window length. A power of two, at least 4.
+     * @param first_bin_in  First bin to keep
+     * @param last_bin_in   Last bin to keep, no more than n / 2
+     */
+    public SlidingDft(FftEngine engine_in, int n_in, int first_bin_in, int last_bin_in)
+    {
+        if (first_bin_in < 0 || last_bin_in < first_bin_in || last_bin_in > n_in / 2)
+        {
+            throw new IllegalArgumentException("Bins must be in order, from 0 to n / 2.");
+        }
+        engine = engine_in;
+        n = n_in;
+        first_bin = first_bin_in;
+        num_bins = (last_bin_in - first_bin_in) + 1;
+        bin_re = new double[num_bins];
+        bin_im = new double[num_bins];
+        turn_re = new double[num_bins];
+        turn_im = new double[num_bins];
+        for (int b = 0; b < num_bins; b++)
+        {
+            double theta = (2.0 * Math.PI * (first_bin + b)) / n;
+            turn_re[b] = Math.cos(theta);
+            turn_im[b] = -Math.sin(theta);
+        }
+        ring = new double[n];
+        scratch = new double[n + 2];
+        oldest = 0;
+        started = false;
+    }
+
+    /**
+     * Move the window on by some samples.
+     *
+     * @param samples    Holds the new samples
+     * @param offset     Where they start
+     * @param count      How many there are
+     */
+    public void Slide(double [] samples, int offset, int count)
+    {
+        for (int m = 0; m < count; m++)
+        {
+            double delta = samples[offset + m] - ring[oldest];
+            ring[oldest] = samples[offset + m];
+            oldest = (oldest + 1) % n;
+            for (int b = 0; b < num_bins; b++)
+            {
+                double re = bin_re[b] + delta;
+                double im = bin_im[b];
+                bin_re[b] = (re * turn_re[b]) - (im * turn_im[b]);
+                bin_im[b] = (re * turn_im[b]) + (im * turn_re[b]);
+            }
+        }
+    }
+
+    /**
+     * Start over on a whole new window, working the bins out afresh with
+     * the FFT. Drops any error built up.
+     *
+     * @param samples    Holds the window
+     * @param offset     Where its n samples start
+     */
+    public void Restart(double [] samples, int offset)
+    {
+        System.arraycopy(samples, offset, ring, 0, n);
+        oldest = 0;
+        System.arraycopy(samples, offset, scratch, 0, n);
+        engine.RealInPlace(scratch, n, FastFourierTransform.FORWARD_TRANSFORM);
+        for (int b = 0; b < num_bins; b++)
+        {
+            bin_re[b] = scratch[2 * (first_bin + b)];
+            bin_im[b] = scratch[(2 * (first_bin + b)) + 1];
+        }
+        started = true;
+    }
+
+    /**
+     * @return    True once Restart() has been called
+     */
+    public boolean Started()
+    {
+        return started;
+    }
+
+    /**
+     * Write the kept bins where they'd be in a half spectrum from
+     * FftEngine.RealInPlace(). The other bins are left alone.
+     *
+     * @param spectrum    Holds the half spectrum
+     * @param offset      Where it starts
+     */
+    public void HalfSpectrum(double [] spectrum, int offset)
+    {
+        for (int b = 0; b < num_bins; b++)
+        {
+            spectrum[offset + (2 * (first_bin + b))] = bin_re[b];
+            spectrum[offset + (2 * (first_bin + b)) + 1] = bin_im[b];
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package main.java.com.branchy.libmath;
+
+/** Rows of spectra kept by a PowerSpectrumWaterfall.
+ * <p>
+ * The waterfall works out each row in double, then hands it over here.
+ * Subclasses decide how the values are held, so the storage precision
+ * can be picked without touching the calculations. Rows are held in
+ * one flat block of values, on the heap or off it, rather than as an
+ * array per row.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+abstract class SpectraStore {
+
+    /**
+     * The fixed point precisions are coded as each row is set, with
+     * levels across the whole range the values can take.
+     *
+     * @param precision    How the values are to be held
+     * @param storage      Where the values are to be held. Fixed point is only kept on the heap.
+     * @param rows         Number of rows to start with
+     * @param columns      Number of values in a row
+     * @param min_value    Lowest value the rows can hold, for fixed point
+     * @param max_value    Highest value the rows can hold, for fixed point
+     * @return             An empty store
+     */
+    static SpectraStore Create(
+            PowerSpectrumWaterfall.Precision precision,
+            PowerSpectrumWaterfall.Storage storage,
+            int rows,
+            int columns,
+            double min_value,
+            double max_value)
+    {
+        boolean fixed = precision == PowerSpectrumWaterfall.Precision.FIXED_16
+                || precision == PowerSpectrumWaterfall.Precision.FIXED_8;
+        if (storage == PowerSpectrumWaterfall.Storage.OFF_HEAP)
+        {
+            if (fixed)
+            {
+                throw new IllegalArgumentException("Fixed point spectra are only kept on the heap.");
+            }
+            return new DirectSpectraStore(precision, rows, columns);
+        }
+        if (fixed)
+        {
+            int bits = precision == PowerSpectrumWaterfall.Precision.FIXED_16 ? 16 : 8;
+            return new QuantizedSpectraStore(bits, rows, columns, min_value, max_value, Double.NaN);
+        }
+        if (precision == PowerSpectrumWaterfall.Precision.FLOAT)
+        {
+            return new FloatSpectraStore(rows, columns);
+        }
+        return new DoubleSpectraStore(rows, columns);
+    }
+
+    /**
+     * @return    Number of rows
+     */
+    abstract int Rows();
+
+    /**
+     * @return    Number of values in a row
+     */
+    abstract int Columns();
+
+    /**
+     * Change the number of rows, keeping the ones that are still in range.
+     * New rows have to be set before they're read.
+     *
+     * @param rows    The new number of rows
+     */
+    abstract void Resize(int rows);
+
+    /**
+     * @param i      Row to set
+     * @param row    Its values, at least Columns() long
+     */
+    abstract void SetRow(int i, double [] row);
+
+    /**
+     * @param i      Row to get
+     * @param out    Where its values go, at least Columns() long
+     */
+    abstract void GetRow(int i, double [] out);
+
+    /**
+     * @param j      Column to get
+     * @param out    Where its value in every row goes, at least Rows() long
+     */
+    abstract void GetColumn(int j, double [] out);
+
+    /**
+     * @param i    Row
+     * @param j    Column
+     * @return     The value there
+     */
+    abstract double Get(int i, int j);
+
+    /**
+     * @return    Approximate number of bytes the values take up
+     */
+    abstract long Bytes();
+
+    /**
+     * Values are kept to the nearest multiple of this, give or take an
+     * offset, so they can be off by up to half of it.
+     *
+     * @return    Spacing of the levels the values are kept at, or 0 if they're kept in floating point
+     */
+    double Step()
+    {
+        return 0.0;
+    }
+
+    /**
+     * Helper for the stores that keep every value in one array.
+     *
+     * @param rows       Number of rows
+     * @param columns    Number of values in a row
+     * @return           Length of the array
+     */
+    static int FlatLength(int rows, int columns)
+    {
+        long length = (long)rows * columns;
+        if (length > Integer.MAX_VALUE - 8)
+        {
+            throw new IllegalArgumentException("Too many spectra for one array. Keep them off the heap instead.");
+        }
+        return (int)length;
+    }
+
+}
@@ -0,0 +1,78 @@
+package main.java.com.branchy.libmath;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Windows to taper a chunk of samples with before it's transformed.
+ * <p>
+ * A chunk cut straight out of the samples, RECTANGULAR, has sharp edges,
+ * and a note's energy leaks from its bin into bins far away. Tapering the
+ * chunk to zero at its edges keeps the energy near the note. HANN and
+ * HAMMING trade a slightly wider peak for much less leakage, and
+ * BLACKMAN_HARRIS a wider one again for almost none.
+ * <p>
+ * The windows are periodic, the way spectral analysis wants them, and
+ * scaled to add up to their length, so a sinusoid in the middle of a
+ * bin comes out at the same magnitude whatever the window.
+ * Tables are worked out once for each window and length, and shared.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public enum WindowFunction {
+    RECTANGULAR (new double[] {1.0}),
+    HANN (new double[] {0.5, 0.5}),
+    HAMMING (new double[] {0.54, 0.46}),
+    BLACKMAN_HARRIS (new double[] {0.35875, 0.48829, 0.14128, 0.01168});
+
+    /**
+     * w[n] = a[0] - a[1] cos(2 pi n / N) + a[2] cos(4 pi n / N) - a[3] cos(6 pi n / N)
+     */
+    private final double [] coefficients;
+
+    /**
+     * Tables of this window already worked out, by length
+     */
+    private final ConcurrentHashMap<Integer, double []> tables = new ConcurrentHashMap<Integer, double []>();
+
+    WindowFunction(double [] coefficients_in)
+    {
+        coefficients = coefficients_in;
+    }
+
+    /**
+     * The window for a chunk of some length. The table is shared, so don't change it.
+     *
+     * @param length    Number of samples in the chunk
+     * @return          The window's value for each sample
+     */
+    public double [] Table(int length)
+    {
+        double [] table = tables.get(length);
+        if (table == null)
+        {
+            table = new double[length];
+            double sum = 0.0;
+            for (int n = 0; n < length; n++)
+            {
+                double w = 0.0;
+                double sign = 1.0;
+                for (int m = 0; m < coefficients.length; m++)
+                {
+                    w += sign * coefficients[m] * Math.cos((2.0 * Math.PI * m * n) / length);
+                    sign = -sign;
+                }
+                table[n] = w;
+                sum += w;
+            }
+            for (int n = 0; n < length; n++)
+            {
+                table[n] *= length / sum;
+            }
+            tables.putIfAbsent(length, table);
+        }
+        return table;
+    }
+
+}
@@ -0,0 +1,174 @@
+package main.java.com.branchy.libmp3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** An InputStream that reads a file through a memory mapping.
+ * <p>
+ * Reads are served straight out of the page cache, with no read() system
+ * call and no intermediate copy per buffer refill. A single mapping can't
+ * be larger than 2 GB, so bigger files are mapped one segment at a time
+ * as the stream moves through them.
+ * <p>
+ * Supports mark/reset and cheap skips, which is all the frame index scanner needs.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class MappedFileInputStream extends InputStream {
+    /**
+     * Size of one mapped segment. Must fit in an int.
+     */
+    private static long segmentSize = 1L << 30;
+
+    /**
+     * Channel used to create the mappings
+     */
+    private FileChannel _channel;
+
+    /**
+     * Currently mapped segment, or null before the first read
+     * and its offset from the start of the file
+     */
+    private MappedByteBuffer _segment;
+    private long _segmentStart;
+
+    /**
+     * Absolute position in the file, the end of the file, and the mark
+     */
+    private long _position;
+    private long _end;
+    private long _mark;
+
+    /**
+     * Open a file for reading from the start.
+     *
+     * @param file_name       The file to map
+     * @throws IOException    If the file can't be opened
+     */
+    public MappedFileInputStream(String file_name) throws IOException
+    {
+        this(file_name, 0);
+    }
+
+    /**
+     * Open a file for reading from a given byte offset.
+     *
+     * @param file_name       The file to map
+     * @param offset          Byte offset to start reading from
+     * @throws IOException    If the file can't be opened
+     */
+    public MappedFileInputStream(String file_name, long offset) throws IOException
+    {
+        _channel = FileChannel.open(Paths.get(file_name), StandardOpenOption.READ);
+        _end = _channel.size();
+        _position = offset < _end ? offset : _end;
+        _mark = _position;
+        _segment = null;
+    }
+
+    /**
+     * Make sure the mapped segment covers _position and is positioned there.
+     *
+     * @return    False at the end of the file
+     */
+    private boolean _map() throws IOException
+    {
+        if (_position >= _end)
+        {
+            return false;
+        }
+        if (_segment == null || _position < _segmentStart || _position >= _segmentStart + _segment.capacity())
+        {
+            long start = (_position / segmentSize) * segmentSize;
+            long length = _end - start < segmentSize ? _end - start : segmentSize;
+            _segment = _channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            _segmentStart = start;
+        }
+        _segment.position((int)(_position - _segmentStart));
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (_segment == null || !_segment.hasRemaining() || _segmentStart + _segment.position() != _position)
+        {
+            if (!_map())
+            {
+                return -1;
+            }
+        }
+        _position += 1;
+        return _segment.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int len) throws IOException
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+        int count = 0;
+        while (count < len && _map())
+        {
+            int n = _segment.remaining() < len - count ? _segment.remaining() : len - count;
+            _segment.get(buffer, offset + count, n);
+            _position += n;
+            count += n;
+        }
+        return count > 0 ? count : -1;
+    }
+
+    @Override
+    public long skip(long n)
+    {
+        if (n <= 0)
+        {
+            return 0;
+        }
+        long skipped = _end - _position < n ? _end - _position : n;
+        _position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available()
+    {
+        long remaining = _end - _position;
+        return remaining > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)remaining;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public void mark(int readlimit)
+    {
+        _mark = _position;
+    }
+
+    @Override
+    public void reset()
+    {
+        _position = _mark;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        _segment = null;
+        _channel.close();
+    }
+
+}
@@ -0,0 +1,169 @@
+package main.java.com.branchy.libmp3;
+
+import java.io.InputStream;
+
+import main.java.com.branchy.libdata.LogWriter;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.DecoderException;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.SampleBuffer;
+
+/** Decodes an .mp3 bitstream one frame at a time.
+ * <p>
+ * Shared by the classes in this package that need decoded PCM,
+ * so the jlayer frame loop only lives in one place.
+ * The decoder buffer is reused between frames, so callers must
+ * copy out what they need before asking for the next frame.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+class Mp3FrameDecoder {
+    /**
+     * Log writer to report warnings
+     */
+    private LogWriter _log;
+
+    /**
+     * jlayer objects doing the actual work
+     */
+    private Bitstream _bitstream;
+    private Decoder _decoder;
+    private SampleBuffer _output;
+
+    /**
+     * Maximum number of milliseconds to decode
+     */
+    private float _maxMs;
+
+    /**
+     * Number of milliseconds decoded so far
+     */
+    private float _totalMs;
+
+    /**
+     * Number of times a frame header was read, including the final
+     * read that hit the end of the stream.
+     */
+    private int _frameCount;
+
+    /**
+     * True once the end of the stream or the time limit is reached
+     */
+    private boolean _done;
+
+    /**
+     * @param inputStream    Source of the .mp3 bitstream
+     * @param log            Log writer to report warnings
+     * @param maxMs          Maximum number of milliseconds to decode
+     */
+    Mp3FrameDecoder(InputStream inputStream, LogWriter log, float maxMs)
+    {
+        _log = log;
+        _maxMs = maxMs;
+        _totalMs = 0;
+        _frameCount = 0;
+        _done = false;
+        _bitstream = new Bitstream(inputStream);
+        _decoder = new Decoder();
+    }
+
+    /**
+     * Decode the next frame.
+     *
+     * @return    True if a frame was decoded, false at the end of the stream or time limit.
+     */
+    boolean readFrame() throws BitstreamException, DecoderException
+    {
+        if (_done)
+        {
+            return false;
+        }
+
+        Header frameHeader = _bitstream.readFrame();
+        _frameCount += 1;
+        if (frameHeader == null) {
+            _done = true;
+            _bitstream.closeFrame();
+            return false;
+        }
+
+        _totalMs += frameHeader.ms_per_frame();
+        _output = (SampleBuffer) _decoder.decodeFrame(frameHeader, _bitstream);
+        if (_output.getSampleFrequency() != 44100)
+        {
+            _log.write("Warning: sample frequency is " + _output.getSampleFrequency());
+        }
+        if (_output.getChannelCount() != 2)
+        {
+            _log.write("Warning: number of channels is " + _output.getChannelCount());
+        }
+
+        if (_totalMs >= _maxMs) {
+            _done = true;
+        }
+        _bitstream.closeFrame();
+        return true;
+    }
+
+    /**
+     * @return    Interleaved samples of the last decoded frame. Only the first bufferLength() are valid.
+     */
+    short[] buffer()
+    {
+        return _output.getBuffer();
+    }
+
+    /**
+     * @return    Number of valid interleaved samples in buffer()
+     */
+    int bufferLength()
+    {
+        return _output.getBufferLength();
+    }
+
+    /**
+     * @return    Number of channels in the last decoded frame
+     */
+    int channelCount()
+    {
+        return _output.getChannelCount();
+    }
+
+    /**
+     * @return    Sample frequency of the last decoded frame in Hertz
+     */
+    int sampleFrequency()
+    {
+        return _output.getSampleFrequency();
+    }
+
+    /**
+     * @return    Milliseconds decoded so far, including the last decoded frame
+     */
+    float totalMs()
+    {
+        return _totalMs;
+    }
+
+    /**
+     * @return    Number of frame header reads, including the one that hit the end of the stream
+     */
+    int frameCount()
+    {
+        return _frameCount;
+    }
+
+    /**
+     * Release the underlying stream.
+     */
+    void close() throws BitstreamException
+    {
+        _bitstream.close();
+    }
+
+}
@@ -0,0 +1,578 @@
+package main.java.com.branchy.libmp3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import main.java.com.branchy.libdata.LogWriter;
+
+/** Byte offsets and durations of every frame in an .mp3 bitstream.
+ * <p>
+ * The scan only parses frame headers, it does not decode anything.
+ * It follows the same sync rules as jlayer's Bitstream, so frame N of
+ * the index is frame N as seen by the decoder. That lets callers hand
+ * a range of frames to a fresh decoder by seeking straight to its offset.
+ * <p>
+ * Scanning a long file still means reading all of it, so ForFile() keeps
+ * a copy of the index next to the .mp3 and reuses it until the file changes.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class Mp3FrameIndex {
+
+    /**
+     * Byte offset of each frame header from the start of the file
+     */
+    private long[] _offsets;
+
+    /**
+     * Length of each frame in bytes, including the header
+     */
+    private int[] _lengths;
+
+    /**
+     * Duration of each frame in milliseconds, as reported by jlayer
+     */
+    private float[] _ms;
+
+    /**
+     * Number of frames in the index
+     */
+    private int _size;
+
+    /**
+     * Largest number of bytes a layer III frame may borrow from
+     * previous frames through the bit reservoir (9 bit main_data_begin).
+     */
+    private static final int maxReservoirBytes = 511;
+
+    /**
+     * Header and side information bytes that never carry main data.
+     * Used to be conservative about how much reservoir a frame provides.
+     */
+    private static final int maxOverheadBytes = 4 + 2 + 32;
+
+    /**
+     * How far back the scanner may need to rewind. Larger than any legal frame.
+     */
+    private static final int markLimit = 8192;
+
+    /**
+     * Header tables, indexed the same way as jlayer's Header:
+     * version 0 = MPEG-2 LSF, 1 = MPEG-1, 2 = MPEG-2.5
+     */
+    private static final int[][] frequencies = {
+        {22050, 24000, 16000},
+        {44100, 48000, 32000},
+        {11025, 12000, 8000}
+    };
+    private static final int[][][] bitrates = {
+        {
+            {0, 32000, 48000, 56000, 64000, 80000, 96000, 112000, 128000, 144000, 160000, 176000, 192000, 224000, 256000, 0},
+            {0, 8000, 16000, 24000, 32000, 40000, 48000, 56000, 64000, 80000, 96000, 112000, 128000, 144000, 160000, 0},
+            {0, 8000, 16000, 24000, 32000, 40000, 48000, 56000, 64000, 80000, 96000, 112000, 128000, 144000, 160000, 0}
+        },
+        {
+            {0, 32000, 64000, 96000, 128000, 160000, 192000, 224000, 256000, 288000, 320000, 352000, 384000, 416000, 448000, 0},
+            {0, 32000, 48000, 56000, 64000, 80000, 96000, 112000, 128000, 160000, 192000, 224000, 256000, 320000, 384000, 0},
+            {0, 32000, 40000, 48000, 56000, 64000, 80000, 96000, 112000, 128000, 160000, 192000, 224000, 256000, 320000, 0}
+        },
+        {
+            {0, 32000, 48000, 56000, 64000, 80000, 96000, 112000, 128000, 144000, 160000, 176000, 192000, 224000, 256000, 0},
+            {0, 8000, 16000, 24000, 32000, 40000, 48000, 56000, 64000, 80000, 96000, 112000, 128000, 144000, 160000, 0},
+            {0, 8000, 16000, 24000, 32000, 40000, 48000, 56000, 64000, 80000, 96000, 112000, 128000, 144000, 160000, 0}
+        }
+    };
+    private static final float[][] msPerFrame = {
+        {8.707483f, 8.0f, 12.0f},
+        {26.12245f, 24.0f, 36.0f},
+        {26.12245f, 24.0f, 36.0f}
+    };
+    private static final double[] vbrTimePerFrame = {-1, 384, 1152, 1152};
+
+    /**
+     * Cached index files live next to the .mp3 with this suffix appended
+     */
+    public static final String indexSuffix = ".idx";
+
+    /**
+     * Marks the start of a cached index file, and its layout version
+     */
+    private static final int indexMagic = 0x4D334958;
+    private static final int indexVersion = 1;
+
+    /**
+     * Buffer size for reading and writing. Caller has no choice for now.
+     */
+    private static final int bufferSize = 65536;
+
+    /**
+     * Only built through Scan()
+     */
+    private Mp3FrameIndex(long[] offsets, int[] lengths, float[] ms, int size)
+    {
+        _offsets = offsets;
+        _lengths = lengths;
+        _ms = ms;
+        _size = size;
+    }
+
+    /**
+     * Scan a whole .mp3 bitstream and record where each frame starts.
+     *
+     * @param inputStream    The bitstream, positioned at the start of the file
+     * @return               The frame index
+     * @throws IOException   If the stream can't be read
+     */
+    public static Mp3FrameIndex Scan(InputStream inputStream) throws IOException
+    {
+        InputStream in = inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream, markLimit);
+
+        int capacity = 4096;
+        long[] offsets = new long[capacity];
+        int[] lengths = new int[capacity];
+        float[] ms = new float[capacity];
+        int size = 0;
+
+        // Skip an ID3v2 tag the same way jlayer does
+        long pos = 0;
+        byte[] tag = new byte[10];
+        in.mark(markLimit);
+        int n = readFully(in, tag, 10);
+        in.reset();
+        if (n == 10 && tag[0] == 'I' && tag[1] == 'D' && tag[2] == '3')
+        {
+            long tagSize = (tag[6] << 21) + (tag[7] << 14) + (tag[8] << 7) + tag[9] + 10;
+            pos += skipFully(in, tagSize);
+        }
+
+        boolean initialSync = true;
+        int syncword = 0;
+        boolean singleChannel = false;
+        boolean vbr = false;
+        int header = 0;
+        int headerBytes = 0;
+
+        while (true)
+        {
+            // Shift bytes in until we have something that looks like a header
+            int b = in.read();
+            if (b < 0)
+            {
+                break;
+            }
+            pos += 1;
+            header = (header << 8) | b;
+            headerBytes += 1;
+            if (headerBytes < 4 || !isSyncMark(header, initialSync, syncword, singleChannel))
+            {
+                continue;
+            }
+
+            long frameStart = pos - 4;
+            int version = ((header >>> 19) & 1) == 0 ? (((header >>> 20) & 1) == 0 ? 2 : 0) : 1;
+            int sampleFrequency = (header >>> 10) & 3;
+            int layer = 4 - ((header >>> 17) & 3);
+            int bitrateIndex = (header >>> 12) & 15;
+            int padding = (header >>> 9) & 1;
+            int mode = (header >>> 6) & 3;
+            int frameLength = frameLength(version, layer, bitrateIndex, sampleFrequency, padding);
+            if (bitrates[version][layer - 1][bitrateIndex] == 0)
+            {
+                // Free format and bad bitrates are not supported
+                headerBytes = 0;
+                continue;
+            }
+
+            // Read the frame body, then peek at whatever follows it
+            in.mark(markLimit);
+            byte[] body = new byte[frameLength - 4];
+            if (readFully(in, body, body.length) < body.length)
+            {
+                // Truncated frame at the end of the file
+                break;
+            }
+            byte[] next = new byte[4];
+            int nextBytes = readFully(in, next, 4);
+            int nextHeader = ((next[0] & 0xFF) << 24) | ((next[1] & 0xFF) << 16) | ((next[2] & 0xFF) << 8) | (next[3] & 0xFF);
+            int nextSyncword = initialSync ? (header & 0xFFF80CC0) & 0xFFFFFF3F : syncword;
+            boolean nextSingleChannel = initialSync ? ((header & 0xC0) == 0xC0) : singleChannel;
+            boolean sync = false;
+            if (nextBytes == 0)
+            {
+                sync = true;
+            } else if (nextBytes == 4)
+            {
+                sync = isSyncMark(nextHeader, initialSync, nextSyncword, nextSingleChannel);
+            }
+            in.reset();
+
+            if (!sync)
+            {
+                // Not really a frame. Keep hunting right after the header.
+                headerBytes = 0;
+                continue;
+            }
+
+            if (initialSync)
+            {
+                initialSync = false;
+                syncword = nextSyncword;
+                singleChannel = nextSingleChannel;
+                vbr = isVbr(body, version, mode);
+            }
+            skipFully(in, body.length);
+            pos += body.length;
+            headerBytes = 0;
+
+            if (size == capacity)
+            {
+                capacity *= 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                ms = Arrays.copyOf(ms, capacity);
+            }
+            offsets[size] = frameStart;
+            lengths[size] = frameLength;
+            if (vbr)
+            {
+                double tpf = vbrTimePerFrame[layer] / frequencies[version][sampleFrequency];
+                if (version != 1)
+                {
+                    tpf /= 2;
+                }
+                ms[size] = (float)(tpf * 1000);
+            } else {
+                ms[size] = msPerFrame[layer - 1][sampleFrequency];
+            }
+            size += 1;
+        }
+
+        return new Mp3FrameIndex(offsets, lengths, ms, size);
+    }
+
+    /**
+     * Get the index for a file, from the cache next to it when that is still
+     * current, otherwise by scanning the file and refreshing the cache.
+     * Problems with the cache are logged and otherwise ignored.
+     *
+     * @param file_name      The .mp3 file
+     * @param log            Log writer to report cache problems
+     * @return               The frame index
+     * @throws IOException   If the .mp3 itself can't be read
+     */
+    public static Mp3FrameIndex ForFile(String file_name, LogWriter log) throws IOException
+    {
+        File file = new File(file_name);
+        File indexFile = new File(file_name + indexSuffix);
+        long fileLength = file.length();
+        long lastModified = file.lastModified();
+
+        if (indexFile.exists())
+        {
+            try {
+                Mp3FrameIndex index = Load(indexFile, fileLength, lastModified);
+                if (index != null)
+                {
+                    return index;
+                }
+            } catch (IOException e) {
+                log.write("Ignoring unreadable frame index " + indexFile + ": " + e.getMessage());
+            }
+        }
+
+        Mp3FrameIndex index;
+        InputStream inputStream = new MappedFileInputStream(file_name);
+        try {
+            index = Scan(inputStream);
+        } finally {
+            inputStream.close();
+        }
+
+        try {
+            index.Save(indexFile, fileLength, lastModified);
+        } catch (IOException e) {
+            log.write("Could not cache frame index " + indexFile + ": " + e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Read a cached index.
+     *
+     * @param indexFile       The cached index
+     * @param fileLength      Current length of the .mp3 in bytes
+     * @param lastModified    Current modification time of the .mp3
+     * @return                The index, or null if it was built from a different version of the file
+     * @throws IOException    If the cache can't be read or is corrupt
+     */
+    public static Mp3FrameIndex Load(File indexFile, long fileLength, long lastModified) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), bufferSize));
+        try {
+            if (in.readInt() != indexMagic || in.readInt() != indexVersion)
+            {
+                return null;
+            }
+            if (in.readLong() != fileLength || in.readLong() != lastModified)
+            {
+                return null;
+            }
+            int size = in.readInt();
+            if (size < 0)
+            {
+                throw new IOException("Corrupt frame index");
+            }
+            long[] offsets = new long[size];
+            int[] lengths = new int[size];
+            float[] ms = new float[size];
+            for (int i = 0; i < size; i++)
+            {
+                offsets[i] = in.readLong();
+                lengths[i] = in.readInt();
+                ms[i] = in.readFloat();
+            }
+            return new Mp3FrameIndex(offsets, lengths, ms, size);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write this index to a cache file.
+     * The file is written under a temporary name and then moved into place,
+     * so readers never see a half written index.
+     *
+     * @param indexFile       Where to write the index
+     * @param fileLength      Length of the .mp3 in bytes
+     * @param lastModified    Modification time of the .mp3
+     * @throws IOException    If the cache can't be written
+     */
+    public void Save(File indexFile, long fileLength, long lastModified) throws IOException
+    {
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(indexFile.getName(), ".tmp", parent);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), bufferSize));
+            try {
+                out.writeInt(indexMagic);
+                out.writeInt(indexVersion);
+                out.writeLong(fileLength);
+                out.writeLong(lastModified);
+                out.writeInt(_size);
+                for (int i = 0; i < _size; i++)
+                {
+                    out.writeLong(_offsets[i]);
+                    out.writeInt(_lengths[i]);
+                    out.writeFloat(_ms[i]);
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Same test as jlayer's Bitstream.isSyncMark()
+     */
+    private static boolean isSyncMark(int header, boolean initialSync, int syncword, boolean singleChannel)
+    {
+        boolean sync;
+        if (initialSync)
+        {
+            sync = (header & 0xFFE00000) == 0xFFE00000;
+        } else {
+            sync = ((header & 0xFFF80C00) == syncword) && (((header & 0xC0) == 0xC0) == singleChannel);
+        }
+        return sync
+                && ((header >>> 10) & 3) != 3
+                && ((header >>> 17) & 3) != 0
+                && ((header >>> 19) & 3) != 1;
+    }
+
+    /**
+     * Same calculation as jlayer's Header.calculate_framesize(), plus the 4 header bytes.
+     */
+    private static int frameLength(int version, int layer, int bitrateIndex, int sampleFrequency, int padding)
+    {
+        int bitrate = bitrates[version][layer - 1][bitrateIndex];
+        int frequency = frequencies[version][sampleFrequency];
+        int length;
+        if (layer == 1)
+        {
+            length = ((12 * bitrate / frequency) + padding) << 2;
+        } else {
+            length = (144 * bitrate) / frequency;
+            if (version != 1)
+            {
+                length >>= 1;
+            }
+            length += padding;
+        }
+        return length;
+    }
+
+    /**
+     * Same test as jlayer's Header.parseVBR(): look for a Xing or VBRI tag in the first frame.
+     */
+    private static boolean isVbr(byte[] body, int version, int mode)
+    {
+        int offset;
+        if (version == 1)
+        {
+            offset = (mode == 3) ? 17 : 32;
+        } else {
+            offset = (mode == 3) ? 9 : 17;
+        }
+        return hasTag(body, offset, "Xing") || hasTag(body, 32, "VBRI");
+    }
+
+    private static boolean hasTag(byte[] body, int offset, String tag)
+    {
+        if (offset + 4 > body.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < 4; i++)
+        {
+            if (body[offset + i] != tag.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int len) throws IOException
+    {
+        int count = 0;
+        while (count < len)
+        {
+            int n = in.read(buffer, count, len - count);
+            if (n < 0)
+            {
+                break;
+            }
+            count += n;
+        }
+        return count;
+    }
+
+    private static long skipFully(InputStream in, long len) throws IOException
+    {
+        long count = 0;
+        while (count < len)
+        {
+            long n = in.skip(len - count);
+            if (n <= 0)
+            {
+                // skip() may give up early, fall back to reading a byte
+                if (in.read() < 0)
+                {
+                    break;
+                }
+                n = 1;
+            }
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * @return    Number of frames in the index
+     */
+    public int size()
+    {
+        return _size;
+    }
+
+    /**
+     * @param frame    Frame number
+     * @return         Byte offset of the frame header from the start of the file
+     */
+    public long offset(int frame)
+    {
+        return _offsets[frame];
+    }
+
+    /**
+     * @param frame    Frame number
+     * @return         Length of the frame in bytes, including the header
+     */
+    public int length(int frame)
+    {
+        return _lengths[frame];
+    }
+
+    /**
+     * @param frame    Frame number
+     * @return         Duration of the frame in milliseconds
+     */
+    public float ms(int frame)
+    {
+        return _ms[frame];
+    }
+
+    /**
+     * Find the first frame that ends at or after a given time.
+     * Times are summed frame by frame in the same float arithmetic the
+     * decoder uses, so the answer matches where a sequential decode would be.
+     *
+     * @param ms    Time from the start of the file in milliseconds
+     * @return      The frame number, or size() if the file ends first
+     */
+    public int frameAtMs(float ms)
+    {
+        float totalMs = 0;
+        for (int i = 0; i < _size; i++)
+        {
+            totalMs += _ms[i];
+            if (totalMs >= ms)
+            {
+                return i;
+            }
+        }
+        return _size;
+    }
+
+    /**
+     * Find where a fresh decoder has to start so that the given frame
+     * comes out sample-identical to a decode from the start of the file.
+     * <p>
+     * The filter banks carry state from one frame to the next, and for
+     * MPEG-2 that state reaches back two frames. Those frames have to be
+     * decoded from real data, and each may borrow up to 511 bytes from
+     * earlier frames through the bit reservoir, so we back up until the
+     * frames before them hold at least that much.
+     *
+     * @param frame    The first frame the caller actually wants
+     * @return         The frame to start decoding from. Output before the target frame should be dropped.
+     */
+    public int warmupStart(int frame)
+    {
+        int start = frame - 2;
+        int reservoir = 0;
+        while (start > 0 && reservoir < maxReservoirBytes)
+        {
+            start -= 1;
+            reservoir += _lengths[start] - maxOverheadBytes;
+        }
+        return start > 0 ? start : 0;
+    }
+
+}
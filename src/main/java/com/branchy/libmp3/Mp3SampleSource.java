@@ -0,0 +1,272 @@
+package main.java.com.branchy.libmp3;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import main.java.com.branchy.libdata.LogWriter;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.DecoderException;
+
+/** Streams mono samples from a given .mp3 file, one frame at a time.
+ * <p>
+ * Both channels are averaged together, the same way Mp3Wrapper.data_both() does,
+ * but only one decoded frame is held in memory at a time.
+ * <p>
+ * A window out of the middle of the file is found through the frame index,
+ * the same way Mp3Wrapper does it, so the frames in front of the window
+ * aren't decoded.
+ *  
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class Mp3SampleSource implements SampleSource {
+    /**
+     * Log writer to report errors
+     */
+    private LogWriter _log;
+    
+    /**
+     * Frame decoder, or null once the source is exhausted
+     */
+    private Mp3FrameDecoder _decoder;
+    
+    /**
+     * Mono samples of the current frame
+     */
+    private short[] _frame;
+    
+    /**
+     * Number of valid samples in _frame, and how many have been handed out
+     */
+    private int _frameLength;
+    private int _framePos;
+    
+    /**
+     * Sample frequency in Hertz
+     */
+    private int _sampleFrequency = 44100;
+    
+    /**
+     * Frames to decode and drop before the window: the warm-up frames when
+     * the decoder was positioned through the frame index
+     */
+    private int _skipFrames;
+    
+    /**
+     * Frames from the start of the file to drop, by time, when decoding from the start
+     */
+    private float _startMs;
+    
+    /**
+     * Frames of the window still to decode, or -1 to stop at the decoder's time limit
+     */
+    private int _framesLeft;
+    
+    /**
+     * True if decoding stopped on an error rather than at the end of the window
+     */
+    private boolean _decodeError;
+    
+    /**
+     * Open the file and decode the first frame so the sample frequency is known.
+     * 
+     * @param file_name      Source .mp3 file name
+     * @param log            Log writer to report errors
+     * @param max_seconds    Maximum number of seconds to read
+     */
+    public Mp3SampleSource(String file_name, LogWriter log, int max_seconds)
+    {
+        this(file_name, log, 0.0, max_seconds);
+    }
+    
+    /**
+     * Open a window out of the middle of the file.
+     * <p>
+     * The frame index, cached next to the file after the first scan,
+     * positions the bitstream a few frames before the window. The samples
+     * are the same as a decode from the start of the file would give for
+     * those frames. A window at the start of the file is decoded straight
+     * through, without the index.
+     * 
+     * @param file_name           Source .mp3 file name
+     * @param log                 Log writer to report errors
+     * @param start_seconds       Start of the window, in seconds from the start of the file
+     * @param duration_seconds    Length of the window in seconds
+     */
+    public Mp3SampleSource(String file_name, LogWriter log, double start_seconds, double duration_seconds)
+    {
+        _log = log;
+        _frame = new short[0];
+        _frameLength = 0;
+        _framePos = 0;
+        _decodeError = false;
+        float startMs = (float)(start_seconds * 1000);
+        float maxMs = (float)((start_seconds + duration_seconds) * 1000);
+        try {
+            if (startMs > 0 && _openIndexed(file_name, startMs, maxMs))
+            {
+                _nextFrame();
+                return;
+            }
+            _skipFrames = 0;
+            _startMs = startMs;
+            _framesLeft = -1;
+            InputStream inputStream = new MappedFileInputStream(file_name);
+            _decoder = new Mp3FrameDecoder(inputStream, _log, maxMs);
+        } catch (IOException e) {
+            _log.write(e.getMessage());
+            _decodeError = true;
+            _decoder = null;
+        }
+        _nextFrame();
+    }
+    
+    /**
+     * Position a decoder at the window using the frame index.
+     * Uses the same window rules as Mp3Wrapper.
+     * 
+     * @param file_name    Source .mp3 file name
+     * @param startMs      Start of the window in milliseconds
+     * @param maxMs        End of the window in milliseconds
+     * @return             False if the index couldn't be used, and the caller should decode from the start
+     */
+    private boolean _openIndexed(String file_name, float startMs, float maxMs)
+    {
+        try {
+            Mp3FrameIndex index = Mp3FrameIndex.ForFile(file_name, _log);
+            int first = index.frameAtMs(startMs);
+            int last = index.frameAtMs(maxMs);
+            int end = last < index.size() ? last + 1 : index.size();
+            _startMs = 0;
+            _framesLeft = end > first ? end - first : 0;
+            if (_framesLeft == 0)
+            {
+                // The window is past the end of the file
+                _decoder = null;
+                return true;
+            }
+            int start = index.warmupStart(first);
+            _skipFrames = first - start;
+            InputStream inputStream = new MappedFileInputStream(file_name, index.offset(start));
+            _decoder = new Mp3FrameDecoder(inputStream, _log, Float.MAX_VALUE);
+            return true;
+        } catch (IOException e) {
+            _log.write("Indexed seek failed, decoding from the start: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Decode the next frame into _frame, mixing down to mono.
+     * 
+     * @return    False if there are no more frames
+     */
+    private boolean _nextFrame()
+    {
+        if (_decoder == null || _framesLeft == 0)
+        {
+            close();
+            return false;
+        }
+        try {
+            // Decode, and drop, whatever comes before the window
+            boolean more = _decoder.readFrame();
+            while (more && (_skipFrames > 0 || _decoder.totalMs() < _startMs))
+            {
+                _skipFrames -= _skipFrames > 0 ? 1 : 0;
+                more = _decoder.readFrame();
+            }
+            if (!more)
+            {
+                close();
+                return false;
+            }
+            if (_framesLeft > 0)
+            {
+                _framesLeft -= 1;
+            }
+            _sampleFrequency = _decoder.sampleFrequency();
+            short[] tmp = _decoder.buffer();
+            int channels = _decoder.channelCount();
+            _frameLength = _decoder.bufferLength() / channels;
+            if (_frame.length < _frameLength)
+            {
+                _frame = new short[_frameLength];
+            }
+            if (channels == 2)
+            {
+                for (int i = 0; i < _frameLength; i++)
+                {
+                    _frame[i] = (short)((tmp[2*i] + tmp[(2*i) + 1]) / 2);
+                }
+            } else {
+                System.arraycopy(tmp, 0, _frame, 0, _frameLength);
+            }
+            _framePos = 0;
+            return true;
+        } catch (BitstreamException e) {
+            _log.write(e.getMessage());
+        } catch (DecoderException e) {
+            _log.write(e.getMessage());
+        }
+        _decodeError = true;
+        close();
+        return false;
+    }
+
+    @Override
+    public int sampleFrequency()
+    {
+        return _sampleFrequency;
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int len)
+    {
+        int count = 0;
+        while (count < len)
+        {
+            if (_framePos == _frameLength && !_nextFrame())
+            {
+                break;
+            }
+            int n = Math.min(len - count, _frameLength - _framePos);
+            System.arraycopy(_frame, _framePos, buffer, offset + count, n);
+            _framePos += n;
+            count += n;
+        }
+        if (count == 0 && len > 0)
+        {
+            return -1;
+        }
+        return count;
+    }
+
+    /**
+     * @return    True if decoding stopped on an error, so the samples read are not the whole window
+     */
+    public boolean decodeError()
+    {
+        return _decodeError;
+    }
+
+    @Override
+    public void close()
+    {
+        if (_decoder == null)
+        {
+            return;
+        }
+        try {
+            _decoder.close();
+        } catch (BitstreamException e) {
+            _log.write(e.getMessage());
+        }
+        _decoder = null;
+        _frameLength = 0;
+        _framePos = 0;
+    }
+
+}
@@ -1,17 +1,18 @@
 package main.java.com.branchy.libmp3;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import main.java.com.branchy.libdata.LogWriter;
-import javazoom.jl.decoder.Bitstream;
 import javazoom.jl.decoder.BitstreamException;
-import javazoom.jl.decoder.Decoder;
 import javazoom.jl.decoder.DecoderException;
-import javazoom.jl.decoder.Header;
-import javazoom.jl.decoder.SampleBuffer;
 
 /** Reads raw data from a given .mp3 file
  * <p>
@@ -43,14 +44,24 @@ public class Mp3Wrapper {
     private String _file_name;
     
     /**
-     * Maximum number of milliseconds to read
+     * Window to read, in milliseconds from the start of the file.
+     * Frames that end before startMs are dropped, and reading stops
+     * with the frame that reaches maxMs.
      */
-    private int maxMs;
+    private float startMs;
+    private float maxMs;
     
     /**
-     * Buffer size. Caller has no choice for now.
+     * Initial number of samples per channel to allocate before decoding.
+     * About six seconds at 44.1 kHz.
      */
-    private static int bufferSize = 4096;
+    private static int initialCapacity = 1 << 18;
+    
+    /**
+     * Smallest range of frames worth handing to a decoder thread,
+     * so the warm-up frames stay a small fraction of the work.
+     */
+    private static int minFramesPerRange = 256;
     
     /**
      * Total frame count
@@ -67,133 +78,324 @@ public class Mp3Wrapper {
      */
     private int _sampleFrequency = 44100;
     
+    /**
+     * True if decoding stopped on an error, so the output shouldn't be cached
+     */
+    private boolean _decodeError;
+    
     public Mp3Wrapper(String file_name, LogWriter log, int max_seconds)
+    {
+        this(file_name, log, max_seconds, 1);
+    }
+    
+    /**
+     * Decode the file with several threads.
+     * <p>
+     * The frame headers are scanned once to find where every frame starts,
+     * then contiguous ranges of frames are decoded on separate threads and
+     * stitched back together in order. The output is sample-identical to
+     * decoding on one thread.
+     * 
+     * @param file_name      Source .mp3 file name
+     * @param log            Log writer to report errors
+     * @param max_seconds    Maximum number of seconds to read
+     * @param num_threads    Number of decoder threads. 1 decodes sequentially.
+     */
+    public Mp3Wrapper(String file_name, LogWriter log, int max_seconds, int num_threads)
+    {
+        this(file_name, log, max_seconds, num_threads, null);
+    }
+    
+    /**
+     * Decode the file, or load it from a cache of earlier decodes.
+     * 
+     * @param file_name      Source .mp3 file name
+     * @param log            Log writer to report errors
+     * @param max_seconds    Maximum number of seconds to read
+     * @param num_threads    Number of decoder threads. 1 decodes sequentially.
+     * @param cache          Decoded PCM cache, or null to always decode
+     */
+    public Mp3Wrapper(String file_name, LogWriter log, int max_seconds, int num_threads, PcmCache cache)
     {
         _log = log;
         _file_name = file_name;
+        startMs = 0;
         maxMs = max_seconds * 1000;
-        _allocateData();
-        _readData();
+        _read(num_threads, num_threads > 1, cache);
+    }
+    
+    /**
+     * Decode a window out of the middle of the file.
+     * <p>
+     * Uses the frame index, cached next to the file after the first scan,
+     * to position the bitstream a few frames before the window instead of
+     * decoding everything in front of it. The samples are the same as a
+     * decode from the start of the file would give for those frames.
+     * 
+     * @param file_name           Source .mp3 file name
+     * @param log                 Log writer to report errors
+     * @param start_seconds       Start of the window, in seconds from the start of the file
+     * @param duration_seconds    Length of the window in seconds
+     * @param num_threads         Number of decoder threads. 1 decodes sequentially.
+     */
+    public Mp3Wrapper(String file_name, LogWriter log, double start_seconds, double duration_seconds, int num_threads)
+    {
+        this(file_name, log, start_seconds, duration_seconds, num_threads, null);
     }
     
     /**
-     * Calculate the output size we need to allocate
-     * XXX - do we really need this much duplicate code?
+     * Decode a window out of the middle of the file, or load it from a cache of earlier decodes.
+     * 
+     * @param file_name           Source .mp3 file name
+     * @param log                 Log writer to report errors
+     * @param start_seconds       Start of the window, in seconds from the start of the file
+     * @param duration_seconds    Length of the window in seconds
+     * @param num_threads         Number of decoder threads. 1 decodes sequentially.
+     * @param cache               Decoded PCM cache, or null to always decode
      */
-    private void _allocateData()
+    public Mp3Wrapper(String file_name, LogWriter log, double start_seconds, double duration_seconds, int num_threads, PcmCache cache)
     {
+        _log = log;
+        _file_name = file_name;
+        startMs = (float)(start_seconds * 1000);
+        maxMs = (float)((start_seconds + duration_seconds) * 1000);
+        _read(num_threads, true, cache);
+    }
+    
+    /**
+     * Look the window up in the cache, and decode it on a miss.
+     * A successful decode is added to the cache.
+     * 
+     * @param num_threads    Number of decoder threads
+     * @param indexed        Use the frame index rather than a single pass from the start
+     * @param cache          Decoded PCM cache, or null to always decode
+     */
+    private void _read(int num_threads, boolean indexed, PcmCache cache)
+    {
+        String key = null;
+        if (cache != null)
+        {
+            // The window is all that decides which samples come out.
+            // Thread count and decode path give identical output.
+            key = cache.Key(_file_name, "startMs=" + startMs + ";maxMs=" + maxMs);
+            PcmCache.Entry entry = key != null ? cache.Load(key) : null;
+            if (entry != null && entry.channels() == 2)
+            {
+                _sampleFrequency = entry.sampleFrequency();
+                _data_left = entry.data_left();
+                _data_right = entry.data_right();
+                return;
+            }
+        }
+        
+        _decodeError = false;
+        if (indexed)
+        {
+            _readIndexed(num_threads);
+        } else {
+            _readData();
+        }
+        
+        if (key != null && !_decodeError)
+        {
+            cache.Store(key, _sampleFrequency, _data_left, _data_right);
+        }
+    }
+    
+    /**
+     * Read out data from the .mp3 in a single pass, from the start of the file.
+     * <p>
+     * The output arrays start out sized for a few seconds of audio
+     * and grow geometrically as frames arrive, so the file only has
+     * to be decoded once.
+     */
+    private void _readData()
+    {
+        StereoBuffer data = new StereoBuffer(initialCapacity);
+        _frameCount = 0;
+        _bufferLength = 1;
+        Mp3FrameDecoder decoder = null;
+        // Frames decoded, and frames kept because they reach into the window
+        int decoded = 0;
+        int kept = 0;
         try {
-            InputStream inputStream = new BufferedInputStream(new FileInputStream(_file_name), bufferSize);
-            Bitstream bitstream = new Bitstream(inputStream);
-            Decoder decoder = new Decoder();
-            SampleBuffer output = null;
-
-            // Scan the input once to get total size of output buffer
-            int startMs = 0;
-            boolean seeking = true;
-            float totalMs = 0;
-            boolean done = false;
-            _frameCount = 0;
-            _bufferLength = 1;
-            while (!done) {
-                Header frameHeader = bitstream.readFrame();
-                if (frameHeader == null) {
-                    done = true;
-                } else {
-                    totalMs += frameHeader.ms_per_frame();
-
-                    if (totalMs >= startMs) {
-                        seeking = false;
-                    }
-
-                    if (!seeking) {
-                        output = (SampleBuffer) decoder.decodeFrame(frameHeader, bitstream);
-                        _bufferLength = output.getBufferLength() > _bufferLength ? output.getBufferLength() : _bufferLength;
-                        _sampleFrequency = output.getSampleFrequency();
-                        if (output.getSampleFrequency() != 44100)
-                        {
-                            _log.write("Warning: sample frequency is " + output.getSampleFrequency());
-                        }
-                        if (output.getChannelCount() != 2)
-                        {
-                            _log.write("Warning: number of channels is " + output.getChannelCount());
-                        }
-                    }
-
-                    if (totalMs >= (startMs + maxMs)) {
-                        done = true;
-                    }
+            InputStream inputStream = new MappedFileInputStream(_file_name);
+            decoder = new Mp3FrameDecoder(inputStream, _log, maxMs);
+            
+            while (decoder.readFrame()) {
+                decoded += 1;
+                if (decoder.totalMs() < startMs)
+                {
+                    continue;
                 }
-                _frameCount += 1;
-                bitstream.closeFrame();
+                kept += 1;
+                _bufferLength = decoder.bufferLength() > _bufferLength ? decoder.bufferLength() : _bufferLength;
+                _sampleFrequency = decoder.sampleFrequency();
+                // Only the first bufferLength() entries of the decoder
+                // buffer are valid for this frame.
+                data.append(decoder.buffer(), decoder.bufferLength());
             }
-            // Allocate storage for the whole file and run through again
-            _data_left = new short[((_frameCount + 1) * _bufferLength)/2];
-            _data_right = new short[((_frameCount + 1) * _bufferLength)/2];
+            decoder.close();
         } catch (IOException e) {
+            _decodeError = true;
             _log.write(e.getMessage());
         } catch (BitstreamException e) {
+            _decodeError = true;
             _log.write(e.getMessage());
         } catch (DecoderException e) {
+            _decodeError = true;
             _log.write(e.getMessage());
         }
+        if (decoder != null)
+        {
+            // The decoder also counts the read that hit the end of the stream
+            _frameCount = kept + (decoder.frameCount() - decoded);
+        }
+        
+        // Trim to the same size the old two pass decode allocated:
+        // one extra frame of zero padding past the frame count.
+        int size = ((_frameCount + 1) * _bufferLength) / 2;
+        _data_left = Arrays.copyOf(data.left(), size);
+        _data_right = Arrays.copyOf(data.right(), size);
     }
     
     /**
-     * Read out data from the .mp3
+     * Read out the window from the .mp3 using the frame index,
+     * on one or more threads.
+     * Falls back to _readData() if anything goes wrong.
+     * 
+     * @param num_threads    Number of decoder threads
      */
-    private void _readData()
+    private void _readIndexed(int num_threads)
     {
+        ExecutorService pool = null;
         try {
-            InputStream inputStream = new BufferedInputStream(new FileInputStream(_file_name), bufferSize);
-            Bitstream bitstream = new Bitstream(inputStream);
-            Decoder decoder = new Decoder();
-            SampleBuffer output = null;
-
-            // Scan the input once to get total size of output buffer
-            short[] tmp;
-            int startMs = 0;
-            boolean seeking = true;
-            float totalMs = 0;
-            boolean done = false;
-            int frameNum = 0;
+            Mp3FrameIndex index = Mp3FrameIndex.ForFile(_file_name, _log);
             
-            while (! done) {
-                Header frameHeader = bitstream.readFrame();
-                if (frameHeader == null) {
-                    done = true;
-                } else {
-                    totalMs += frameHeader.ms_per_frame();
-
-                    if (totalMs >= startMs) {
-                        seeking = false;
-                    }
-
-                    if (!seeking) {
-                        output = (SampleBuffer) decoder.decodeFrame(frameHeader, bitstream);
-                        tmp = output.getBuffer();
-                        // Copy to the big buffer
-                        int idx = 0;
-                        for (int i = 0; i < tmp.length - 1; i += 2, idx++)
-                        {
-                            _data_left[idx + (frameNum * _bufferLength / 2)] = tmp[i];
-                            _data_right[idx + (frameNum * _bufferLength / 2)] = tmp[i+1];
-                        }
+            // Same window rules as the sequential decode
+            int first = index.frameAtMs(startMs);
+            int last = index.frameAtMs(maxMs);
+            boolean limited = last < index.size();
+            int end = limited ? last + 1 : index.size();
+            end = end > first ? end : first;
+            int frames = end - first;
+            // The sequential decode also counts the read that hits the end of the stream
+            _frameCount = limited ? frames : frames + 1;
+            
+            List<RangeDecoder> decoded = new ArrayList<RangeDecoder>();
+            if (num_threads > 1)
+            {
+                // A few ranges per thread keeps the threads busy if some ranges decode faster
+                int rangeSize = (frames + (4 * num_threads) - 1) / (4 * num_threads);
+                rangeSize = rangeSize < minFramesPerRange ? minFramesPerRange : rangeSize;
+                pool = Executors.newFixedThreadPool(num_threads);
+                List<Future<RangeDecoder>> ranges = new ArrayList<Future<RangeDecoder>>();
+                for (int i = first; i < end; i += rangeSize)
+                {
+                    int rangeEnd = i + rangeSize < end ? i + rangeSize : end;
+                    ranges.add(pool.submit(new RangeDecoder(index, i, rangeEnd)));
+                }
+                for (Future<RangeDecoder> f : ranges)
+                {
+                    decoded.add(f.get());
+                }
+            } else {
+                decoded.add(new RangeDecoder(index, first, end).call());
+            }
+            
+            _bufferLength = 1;
+            for (RangeDecoder r : decoded)
+            {
+                _bufferLength = r.bufferLength > _bufferLength ? r.bufferLength : _bufferLength;
+                _sampleFrequency = r.sampleFrequency > 0 ? r.sampleFrequency : _sampleFrequency;
+            }
+            
+            // Stitch the ranges back together, padded the same way as _readData()
+            int size = ((_frameCount + 1) * _bufferLength) / 2;
+            _data_left = new short[size];
+            _data_right = new short[size];
+            int idx = 0;
+            for (RangeDecoder r : decoded)
+            {
+                System.arraycopy(r.data.left(), 0, _data_left, idx, r.data.size());
+                System.arraycopy(r.data.right(), 0, _data_right, idx, r.data.size());
+                idx += r.data.size();
+            }
+        } catch (Exception e) {
+            _log.write("Indexed decode failed, decoding sequentially: " + e.getMessage());
+            _readData();
+        } finally {
+            if (pool != null)
+            {
+                pool.shutdownNow();
+            }
+        }
+    }
+    
+    /**
+     * Decodes one contiguous range of frames with its own decoder.
+     * <p>
+     * The bitstream is positioned straight at the range using the frame index.
+     * Decoding starts a few frames before the range so the bit reservoir
+     * and filter banks are warmed up. Output from those frames is dropped.
+     */
+    private class RangeDecoder implements Callable<RangeDecoder> {
+        private Mp3FrameIndex index;
+        private int first;
+        private int end;
+        
+        /**
+         * Results, filled in by call()
+         */
+        StereoBuffer data;
+        int bufferLength;
+        int sampleFrequency;
+        
+        /**
+         * @param index    Frame index of the file
+         * @param first    First frame to keep
+         * @param end      One past the last frame to keep
+         */
+        RangeDecoder(Mp3FrameIndex index, int first, int end)
+        {
+            this.index = index;
+            this.first = first;
+            this.end = end;
+        }
+        
+        @Override
+        public RangeDecoder call() throws Exception
+        {
+            data = new StereoBuffer((end - first) * 1152);
+            bufferLength = 1;
+            sampleFrequency = 0;
+            if (first >= end)
+            {
+                return this;
+            }
+            
+            int start = index.warmupStart(first);
+            InputStream inputStream = new MappedFileInputStream(_file_name, index.offset(start));
+            Mp3FrameDecoder decoder = new Mp3FrameDecoder(inputStream, _log, Float.MAX_VALUE);
+            try {
+                for (int frame = start; frame < end; frame++)
+                {
+                    if (!decoder.readFrame())
+                    {
+                        throw new IOException("Frame index does not match the bitstream at frame " + frame);
                     }
-
-                    if (totalMs >= (startMs + maxMs)) {
-                        done = true;
+                    if (frame < first)
+                    {
+                        continue;
                     }
+                    bufferLength = decoder.bufferLength() > bufferLength ? decoder.bufferLength() : bufferLength;
+                    sampleFrequency = decoder.sampleFrequency();
+                    data.append(decoder.buffer(), decoder.bufferLength());
                 }
-                bitstream.closeFrame();
-                frameNum += 1;
+            } finally {
+                decoder.close();
             }
-        } catch (IOException e) {
-            _log.write(e.getMessage());
-        } catch (BitstreamException e) {
-            _log.write(e.getMessage());
-        } catch (DecoderException e) {
-            _log.write(e.getMessage());
+            return this;
         }
     }
     
@@ -0,0 +1,403 @@
+package main.java.com.branchy.libmp3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import main.java.com.branchy.libdata.LogWriter;
+
+/** On-disk cache of decoded PCM data, so unchanged inputs are only decoded once.
+ * <p>
+ * Entries are keyed by a SHA-256 hash of the input file's contents plus the
+ * decode parameters, so renaming or touching a file doesn't invalidate it
+ * and editing it does. Each entry is a small header followed by raw
+ * little endian 16-bit samples, one whole channel after the other.
+ * Entries hold either both channels, for Mp3Wrapper, or the mono mix
+ * that the streaming sources hand out, for CachedMp3SampleSource.
+ * A hit maps the entry and copies the samples out in bulk.
+ * <p>
+ * Least recently used entries are deleted once the cache grows past its size cap.
+ * Several JVMs may share one cache directory: entries are written under a
+ * temporary name and moved into place, eviction is serialized with a file
+ * lock, and an entry that disappears or is damaged is just a miss.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class PcmCache {
+
+    /**
+     * Decoded samples for one cache entry
+     */
+    public static class Entry {
+        private int _sampleFrequency;
+        private int _channels;
+        private short[] _data_left;
+        private short[] _data_right;
+
+        Entry(int sampleFrequency, int channels, short[] data_left, short[] data_right)
+        {
+            _sampleFrequency = sampleFrequency;
+            _channels = channels;
+            _data_left = data_left;
+            _data_right = data_right;
+        }
+
+        /**
+         * @return    Number of channels stored: 2, or 1 for a mono mix
+         */
+        public int channels()
+        {
+            return _channels;
+        }
+
+        /**
+         * @return    Sample frequency in Hertz
+         */
+        public int sampleFrequency()
+        {
+            return _sampleFrequency;
+        }
+
+        /**
+         * @return    Data from the left channel
+         */
+        public short[] data_left()
+        {
+            return _data_left;
+        }
+
+        /**
+         * @return    Data from the right channel. The same as the left for a mono mix.
+         */
+        public short[] data_right()
+        {
+            return _data_right;
+        }
+    }
+
+    /**
+     * Entry files are named by key with this suffix
+     */
+    private static final String entrySuffix = ".pcm";
+
+    /**
+     * Name of the lock file that serializes eviction between processes
+     */
+    private static final String lockFileName = ".lock";
+
+    /**
+     * Header layout: magic, version, sample frequency, channels, samples per channel
+     */
+    private static final int entryMagic = 0x50434D43;
+    private static final int entryVersion = 1;
+    private static final int headerSize = 5 * 4;
+
+    /**
+     * Bumped whenever decoding changes in a way that changes the samples,
+     * so old entries stop matching.
+     */
+    private static final String decoderVersion = "1";
+
+    /**
+     * Buffer size for hashing input files
+     */
+    private static final int bufferSize = 65536;
+
+    /**
+     * Serializes eviction between threads of this JVM.
+     * File locks are held per process, so they can't do that on their own.
+     */
+    private static final Object evictionMonitor = new Object();
+
+    /**
+     * Directory holding the entries
+     */
+    private File _dir;
+
+    /**
+     * Total size the entries may use before the oldest are evicted
+     */
+    private long _maxBytes;
+
+    /**
+     * Log writer to report problems
+     */
+    private LogWriter _log;
+
+    /**
+     * @param cache_dir    Directory to keep the entries in. Created if needed.
+     * @param max_bytes    Size cap for all entries together, in bytes
+     * @param log          Log writer to report problems
+     */
+    public PcmCache(String cache_dir, long max_bytes, LogWriter log)
+    {
+        _dir = new File(cache_dir);
+        _maxBytes = max_bytes;
+        _log = log;
+        if (!_dir.isDirectory() && !_dir.mkdirs())
+        {
+            _log.write("Could not create PCM cache directory " + _dir);
+        }
+    }
+
+    /**
+     * Calculate the cache key for an input file and its decode parameters.
+     *
+     * @param file_name    The input file
+     * @param params       Decode parameters that affect the output, e.g. the time window
+     * @return             The key, or null if the file couldn't be hashed
+     */
+    public String Key(String file_name, String params)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            InputStream in = new MappedFileInputStream(file_name);
+            try {
+                byte[] buffer = new byte[bufferSize];
+                int n;
+                while ((n = in.read(buffer, 0, buffer.length)) > 0)
+                {
+                    digest.update(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            digest.update((decoderVersion + ";" + params).getBytes("UTF-8"));
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest())
+            {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (IOException e) {
+            _log.write("Could not hash " + file_name + " for the PCM cache: " + e.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            _log.write(e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Look up an entry.
+     *
+     * @param key    Key from Key()
+     * @return       The decoded samples, or null on a miss
+     */
+    public Entry Load(String key)
+    {
+        File file = new File(_dir, key + entrySuffix);
+        if (!file.isFile())
+        {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                map.order(ByteOrder.LITTLE_ENDIAN);
+                if (channel.size() < headerSize
+                        || map.getInt() != entryMagic
+                        || map.getInt() != entryVersion)
+                {
+                    throw new IOException("bad header");
+                }
+                int sampleFrequency = map.getInt();
+                int channels = map.getInt();
+                int samples = map.getInt();
+                if ((channels != 1 && channels != 2) || samples < 0 || channel.size() != headerSize + (2L * channels * samples))
+                {
+                    throw new IOException("bad size");
+                }
+                short[] left = new short[samples];
+                short[] right = channels == 2 ? new short[samples] : left;
+                ShortBuffer data = map.asShortBuffer();
+                data.get(left);
+                if (channels == 2)
+                {
+                    data.get(right);
+                }
+
+                // Mark the entry as recently used
+                file.setLastModified(System.currentTimeMillis());
+                return new Entry(sampleFrequency, channels, left, right);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            // Another process may have evicted it or be replacing it. Treat as a miss.
+            _log.write("Ignoring PCM cache entry " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Add an entry, then evict old entries if the cache is over its cap.
+     * Failures are logged and otherwise ignored.
+     *
+     * @param key                Key from Key()
+     * @param sampleFrequency    Sample frequency in Hertz
+     * @param data_left          Data from the left channel
+     * @param data_right         Data from the right channel, same length as the left
+     */
+    public void Store(String key, int sampleFrequency, short[] data_left, short[] data_right)
+    {
+        _store(key, sampleFrequency, 2, data_left.length, data_left, data_right);
+    }
+
+    /**
+     * Add a mono entry, then evict old entries if the cache is over its cap.
+     * Failures are logged and otherwise ignored.
+     *
+     * @param key                Key from Key()
+     * @param sampleFrequency    Sample frequency in Hertz
+     * @param data               Mono samples
+     * @param length             Number of samples in data to store
+     */
+    public void Store(String key, int sampleFrequency, short[] data, int length)
+    {
+        _store(key, sampleFrequency, 1, length, data, null);
+    }
+
+    /**
+     * Helper for the Store() methods.
+     *
+     * @param key                Key from Key()
+     * @param sampleFrequency    Sample frequency in Hertz
+     * @param channels           Number of channels to store, 1 or 2
+     * @param length             Number of samples in each channel
+     * @param data_left          Data from the left channel, or the mono samples
+     * @param data_right         Data from the right channel, or null for mono
+     */
+    private void _store(String key, int sampleFrequency, int channels, int length, short[] data_left, short[] data_right)
+    {
+        File file = new File(_dir, key + entrySuffix);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(key, ".tmp", _dir);
+            RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+            try {
+                long size = headerSize + (2L * channels * length);
+                FileChannel channel = raf.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(entryMagic);
+                header.putInt(entryVersion);
+                header.putInt(sampleFrequency);
+                header.putInt(channels);
+                header.putInt(length);
+                header.flip();
+                while (header.hasRemaining())
+                {
+                    channel.write(header);
+                }
+                raf.setLength(size);
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, headerSize, size - headerSize);
+                map.order(ByteOrder.LITTLE_ENDIAN);
+                ShortBuffer data = map.asShortBuffer();
+                data.put(data_left, 0, length);
+                if (channels == 2)
+                {
+                    data.put(data_right, 0, length);
+                }
+                map.force();
+            } finally {
+                raf.close();
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            _log.write("Could not store PCM cache entry " + file + ": " + e.getMessage());
+        } finally {
+            if (tmp != null)
+            {
+                tmp.delete();
+            }
+        }
+        Evict();
+    }
+
+    /**
+     * Delete the least recently used entries until the cache fits under its cap.
+     */
+    public void Evict()
+    {
+        synchronized (evictionMonitor)
+        {
+            try {
+                RandomAccessFile lockFile = new RandomAccessFile(new File(_dir, lockFileName), "rw");
+                try {
+                    FileLock lock = lockFile.getChannel().lock();
+                    try {
+                        EvictLocked();
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    lockFile.close();
+                }
+            } catch (IOException e) {
+                _log.write("Could not evict from the PCM cache: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Helper for Evict(), called while holding the lock.
+     */
+    private void EvictLocked()
+    {
+        File[] entries = _dir.listFiles((dir, name) -> name.endsWith(entrySuffix));
+        if (entries == null)
+        {
+            return;
+        }
+        // Snapshot the times and sizes so the sort is stable while other processes touch entries
+        final long[] lastUsed = new long[entries.length];
+        long total = 0;
+        Integer[] order = new Integer[entries.length];
+        long[] sizes = new long[entries.length];
+        for (int i = 0; i < entries.length; i++)
+        {
+            lastUsed[i] = entries[i].lastModified();
+            sizes[i] = entries[i].length();
+            total += sizes[i];
+            order[i] = i;
+        }
+        if (total <= _maxBytes)
+        {
+            return;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> lastUsed[i]));
+        for (int i = 0; i < order.length && total > _maxBytes; i++)
+        {
+            File entry = entries[order[i]];
+            // Already gone is as good as deleted
+            if (entry.delete() || !entry.exists())
+            {
+                total -= sizes[order[i]];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+package main.java.com.branchy.libmp3;
+
+/** A pull based source of mono PCM samples.
+ * <p>
+ * Lets consumers such as PowerSpectrumWaterfall work through a song
+ * a block at a time instead of holding the whole decoded song in memory.
+ *  
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public interface SampleSource {
+    
+    /**
+     * @return    Sample frequency in Hertz
+     */
+    public int sampleFrequency();
+    
+    /**
+     * Read up to len samples into the caller's buffer.
+     * Blocks until at least one sample is available or the source is exhausted.
+     * 
+     * @param buffer    Destination for the samples
+     * @param offset    First index in buffer to write
+     * @param len       Maximum number of samples to write
+     * @return          Number of samples written, or -1 at the end of the source
+     */
+    public int read(short[] buffer, int offset, int len);
+    
+    /**
+     * Release any resources held by the source.
+     */
+    public void close();
+
+}
@@ -0,0 +1,99 @@
+package main.java.com.branchy.libmp3;
+
+import java.util.Arrays;
+
+/** Growable left and right sample arrays, filled one decoded frame at a time.
+ * <p>
+ * Capacity doubles whenever it runs out, so the number of copies stays
+ * logarithmic in the length of the song and no samples are boxed.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+class StereoBuffer {
+    /**
+     * Data from the left and right channels. Only the first _size entries are valid.
+     */
+    private short[] _left;
+    private short[] _right;
+
+    /**
+     * Number of samples per channel written so far
+     */
+    private int _size;
+
+    /**
+     * @param capacity    Number of samples per channel to allocate up front
+     */
+    StereoBuffer(int capacity)
+    {
+        _left = new short[capacity];
+        _right = new short[capacity];
+        _size = 0;
+    }
+
+    /**
+     * Append one decoded frame.
+     *
+     * @param interleaved    Interleaved left/right samples
+     * @param length         Number of valid entries in interleaved, i.e. twice the samples per channel
+     */
+    void append(short[] interleaved, int length)
+    {
+        int frameLength = length / 2;
+        ensureCapacity(_size + frameLength);
+        for (int i = 0, idx = _size; i < frameLength; i++, idx++)
+        {
+            _left[idx] = interleaved[2*i];
+            _right[idx] = interleaved[(2*i) + 1];
+        }
+        _size += frameLength;
+    }
+
+    /**
+     * Grow the arrays so they can hold at least the given number of samples.
+     *
+     * @param capacity    Number of samples per channel that must fit
+     */
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity <= _left.length)
+        {
+            return;
+        }
+        int newCapacity = _left.length * 2;
+        if (newCapacity < capacity)
+        {
+            newCapacity = capacity;
+        }
+        _left = Arrays.copyOf(_left, newCapacity);
+        _right = Arrays.copyOf(_right, newCapacity);
+    }
+
+    /**
+     * @return    Number of samples per channel
+     */
+    int size()
+    {
+        return _size;
+    }
+
+    /**
+     * @return    Backing array for the left channel. May be longer than size().
+     */
+    short[] left()
+    {
+        return _left;
+    }
+
+    /**
+     * @return    Backing array for the right channel. May be longer than size().
+     */
+    short[] right()
+    {
+        return _right;
+    }
+
+}
@@ -0,0 +1,325 @@
+package main.java.com.branchy.libmp3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import main.java.com.branchy.libdata.LogWriter;
+
+/** Streams mono samples from an uncompressed .wav file.
+ * <p>
+ * Parses the RIFF header itself and reads the sample data through a
+ * FileChannel into a direct buffer, so there's no decoding at all.
+ * Handles 8, 16, 24 and 32-bit integer PCM and 32 or 64-bit float,
+ * including WAVE_FORMAT_EXTENSIBLE files.
+ * <p>
+ * All channels are averaged together while the samples are unpacked,
+ * the same way Mp3SampleSource mixes down, in a single pass over the buffer.
+ * Samples are scaled to 16-bit range.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class WavReader implements SampleSource {
+    /**
+     * Format tags from the fmt chunk
+     */
+    private static final int formatPcm = 1;
+    private static final int formatFloat = 3;
+    private static final int formatExtensible = 0xFFFE;
+
+    /**
+     * Size of the direct read buffer in bytes, rounded down to whole sample frames
+     */
+    private static int bufferSize = 65536;
+
+    /**
+     * Log writer to report errors
+     */
+    private LogWriter _log;
+
+    /**
+     * Channel to read from, or null once the source is exhausted
+     */
+    private FileChannel _channel;
+
+    /**
+     * Read buffer, little endian like the file
+     */
+    private ByteBuffer _buffer;
+
+    /**
+     * Format of the sample data
+     */
+    private int _sampleFrequency = 44100;
+    private int _channels;
+    private int _bitsPerSample;
+    private boolean _float;
+
+    /**
+     * Bytes per sample frame, all channels together
+     */
+    private int _blockAlign;
+
+    /**
+     * File position of the next unread sample frame, and of the end of the sample data
+     */
+    private long _position;
+    private long _end;
+
+    /**
+     * Open the file and parse its header.
+     *
+     * @param file_name      Source .wav file name
+     * @param log            Log writer to report errors
+     * @param max_seconds    Maximum number of seconds to read
+     */
+    public WavReader(String file_name, LogWriter log, int max_seconds)
+    {
+        this(file_name, log, 0.0, max_seconds);
+    }
+
+    /**
+     * Open a window out of the middle of the file.
+     * The samples are at a fixed size, so this is just a seek.
+     *
+     * @param file_name           Source .wav file name
+     * @param log                 Log writer to report errors
+     * @param start_seconds       Start of the window, in seconds from the start of the file
+     * @param duration_seconds    Length of the window in seconds
+     */
+    public WavReader(String file_name, LogWriter log, double start_seconds, double duration_seconds)
+    {
+        _log = log;
+        try {
+            _channel = FileChannel.open(Paths.get(file_name), StandardOpenOption.READ);
+            _readHeader();
+            long startBytes = (long)(start_seconds * _sampleFrequency) * _blockAlign;
+            _position = _end - _position > startBytes ? _position + startBytes : _end;
+            long maxBytes = (long)(duration_seconds * _sampleFrequency) * _blockAlign;
+            _end = _end - _position > maxBytes ? _position + maxBytes : _end;
+            _buffer = ByteBuffer.allocateDirect((bufferSize / _blockAlign) * _blockAlign);
+            _buffer.order(ByteOrder.LITTLE_ENDIAN);
+            _buffer.limit(0);
+        } catch (IOException e) {
+            _log.write(file_name + ": " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Walk the RIFF chunks to find the format and the sample data.
+     * Leaves _position and _end around the data chunk.
+     */
+    private void _readHeader() throws IOException
+    {
+        long fileSize = _channel.size();
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        _readFully(header, 0);
+        if (header.getInt(0) != _fourCC("RIFF") || header.getInt(8) != _fourCC("WAVE"))
+        {
+            throw new IOException("Not a RIFF/WAVE file");
+        }
+
+        boolean haveFormat = false;
+        long pos = 12;
+        ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        while (pos + 8 <= fileSize)
+        {
+            chunk.clear();
+            _readFully(chunk, pos);
+            int id = chunk.getInt(0);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            pos += 8;
+
+            if (id == _fourCC("fmt "))
+            {
+                if (size < 16)
+                {
+                    throw new IOException("fmt chunk too short");
+                }
+                ByteBuffer fmt = ByteBuffer.allocate((int)(size < 40 ? size : 40)).order(ByteOrder.LITTLE_ENDIAN);
+                _readFully(fmt, pos);
+                int tag = fmt.getShort(0) & 0xFFFF;
+                _channels = fmt.getShort(2) & 0xFFFF;
+                _sampleFrequency = fmt.getInt(4);
+                _blockAlign = fmt.getShort(12) & 0xFFFF;
+                _bitsPerSample = fmt.getShort(14) & 0xFFFF;
+                if (tag == formatExtensible && size >= 40)
+                {
+                    // The real format tag leads the sub-format GUID
+                    tag = fmt.getShort(24) & 0xFFFF;
+                }
+                if (tag == formatPcm && (_bitsPerSample == 8 || _bitsPerSample == 16 || _bitsPerSample == 24 || _bitsPerSample == 32))
+                {
+                    _float = false;
+                } else if (tag == formatFloat && (_bitsPerSample == 32 || _bitsPerSample == 64)) {
+                    _float = true;
+                } else {
+                    throw new IOException("Unsupported .wav format " + tag + " with " + _bitsPerSample + " bits per sample");
+                }
+                if (_channels < 1 || _blockAlign != _channels * (_bitsPerSample / 8))
+                {
+                    throw new IOException("Unsupported .wav layout: " + _channels + " channels, block align " + _blockAlign);
+                }
+                haveFormat = true;
+            } else if (id == _fourCC("data")) {
+                if (!haveFormat)
+                {
+                    throw new IOException("data chunk before fmt chunk");
+                }
+                _position = pos;
+                // Streaming writers leave the size at zero or all ones
+                _end = (size == 0 || pos + size > fileSize) ? fileSize : pos + size;
+                _end = _position + (((_end - _position) / _blockAlign) * _blockAlign);
+                return;
+            }
+            // Chunks are padded to an even size
+            pos += size + (size & 1);
+        }
+        throw new IOException("No data chunk");
+    }
+
+    /**
+     * Fill a buffer from the channel at the given position.
+     */
+    private void _readFully(ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (_channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * @param s    Four character chunk id
+     * @return     The id as a little endian int, as it appears in the file
+     */
+    private static int _fourCC(String s)
+    {
+        return (s.charAt(0)) | (s.charAt(1) << 8) | (s.charAt(2) << 16) | (s.charAt(3) << 24);
+    }
+
+    /**
+     * Refill the read buffer with whole sample frames.
+     *
+     * @return    False at the end of the sample data
+     */
+    private boolean _fill()
+    {
+        if (_channel == null || _position >= _end)
+        {
+            return false;
+        }
+        try {
+            _buffer.clear();
+            long remaining = _end - _position;
+            if (remaining < _buffer.capacity())
+            {
+                _buffer.limit((int)remaining);
+            }
+            _readFully(_buffer, _position);
+            _position += _buffer.limit();
+            _buffer.flip();
+            return true;
+        } catch (IOException e) {
+            _log.write(e.getMessage());
+        }
+        close();
+        return false;
+    }
+
+    /**
+     * Read one sample from the buffer, scaled to 16-bit range.
+     */
+    private int _sample()
+    {
+        if (_float)
+        {
+            double x = (_bitsPerSample == 32 ? _buffer.getFloat() : _buffer.getDouble()) * 32768.0;
+            return x >= Short.MAX_VALUE ? Short.MAX_VALUE : (x <= Short.MIN_VALUE ? Short.MIN_VALUE : (int)x);
+        }
+        switch (_bitsPerSample)
+        {
+        case 8:
+            // 8-bit .wav data is unsigned
+            return ((_buffer.get() & 0xFF) - 128) << 8;
+        case 16:
+            return _buffer.getShort();
+        case 24:
+            int lo = _buffer.getShort() & 0xFFFF;
+            return _buffer.get() << 8 | (lo >> 8);
+        default:
+            return _buffer.getInt() >> 16;
+        }
+    }
+
+    @Override
+    public int sampleFrequency()
+    {
+        return _sampleFrequency;
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int len)
+    {
+        int count = 0;
+        while (count < len)
+        {
+            if (_channel == null || (!_buffer.hasRemaining() && !_fill()))
+            {
+                break;
+            }
+            int n = Math.min(len - count, _buffer.remaining() / _blockAlign);
+            if (_channels == 2)
+            {
+                for (int i = 0; i < n; i++)
+                {
+                    int l = _sample();
+                    int r = _sample();
+                    buffer[offset + count + i] = (short)((l + r) / 2);
+                }
+            } else {
+                for (int i = 0; i < n; i++)
+                {
+                    int sum = 0;
+                    for (int c = 0; c < _channels; c++)
+                    {
+                        sum += _sample();
+                    }
+                    buffer[offset + count + i] = (short)(sum / _channels);
+                }
+            }
+            count += n;
+        }
+        if (count == 0 && len > 0)
+        {
+            return -1;
+        }
+        return count;
+    }
+
+    @Override
+    public void close()
+    {
+        if (_channel == null)
+        {
+            return;
+        }
+        try {
+            _channel.close();
+        } catch (IOException e) {
+            _log.write(e.getMessage());
+        }
+        _channel = null;
+    }
+
+}
@@ -104,6 +104,20 @@ public class MusicalNote implements Comparable<MusicalNote>{
         amplitude = amp;
     }
     
+    /**
+     * The notes returned by LookupNote() are shared by the whole application,
+     * so give each detection its own copy rather than changing the shared one.
+     * 
+     * @param amp    Amplitude of the copy in arbitrary units.
+     * @return       A copy of this note with the given amplitude.
+     */
+    public MusicalNote WithAmplitude(double amp)
+    {
+        MusicalNote n = new MusicalNote(frequency, name, octave, accidental);
+        n.amplitude = amp;
+        return n;
+    }
+    
     /**
      * @return Full formatted name of the note for writing to log file.
      */
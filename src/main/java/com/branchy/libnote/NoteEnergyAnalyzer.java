@@ -0,0 +1,451 @@
+package main.java.com.branchy.libnote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import main.java.com.branchy.libmath.ChunkStream;
+import main.java.com.branchy.libmath.LogPowerStatistics;
+import main.java.com.branchy.libmp3.SampleSource;
+
+/** Measures the energy of each musical note over time, without a full spectrum.
+ * <p>
+ * Runs a bank of Goertzel filters, one tuned exactly to each note in
+ * allNotes between the minimum and maximum frequency, over the same
+ * overlapping chunks as PowerSpectrumWaterfall: chunk_size samples,
+ * hop samples apart, the last ones padded with zeroes. Each filter
+ * gives the same magnitude an FFT bin would at exactly the note's
+ * frequency. Energies use the waterfall's scale, log10(magnitude + 2),
+ * so the same thresholds work on both.
+ * <p>
+ * Filtering a whole chunk costs chunk_size updates per note, which with
+ * many notes and long chunks is more than an FFT of the chunk. So when
+ * the chunks overlap enough, each note's value is slid on from the chunk
+ * before instead, for hop updates per note: only the samples leaving
+ * and arriving are looked at. That's done when the hop is less than
+ * breakEven of the chunk, where it's the cheaper of the two. Every 64
+ * chunks the values are worked out afresh, so rounding doesn't build up;
+ * the energies stay within 1e-8 of filtering every chunk.
+ * <p>
+ * Only a time x note grid is kept, a few dozen values per chunk, so
+ * note detection doesn't need the waterfall at all.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class NoteEnergyAnalyzer {
+
+    /**
+     * The notes being measured, lowest first
+     */
+    private List<MusicalNote> notes;
+
+    /**
+     * Goertzel coefficient of each note: 2 cos(w), where w = 2 pi f / fs
+     */
+    private double [] coeff;
+
+    /**
+     * For the sliding update, what each note's value is turned by when
+     * the chunk moves on a sample, exp(i w), and what the arriving sample
+     * is turned by, exp(-i w chunk_size). Also what turns a Goertzel
+     * filter's output into the same value, exp(-i w (chunk_size - 1)).
+     */
+    private double [] turnRe;
+    private double [] turnIm;
+    private double [] arriveRe;
+    private double [] arriveIm;
+    private double [] phaseRe;
+    private double [] phaseIm;
+
+    /**
+     * Each note's value for the current chunk: the sum over the chunk's
+     * samples x[k] of x[k] exp(-i w k)
+     */
+    private double [] valueRe;
+    private double [] valueIm;
+
+    /**
+     * Whether the values are slid from chunk to chunk, rather than each
+     * chunk having all its samples filtered afresh
+     */
+    private boolean sliding;
+
+    /**
+     * Sliding is used when the hop is less than this fraction of the
+     * chunk. A sliding update measured about 2.2 times a Goertzel update,
+     * per sample per note.
+     */
+    private static double breakEven = 1.0 / 2.2;
+
+    /**
+     * Every so many chunks the values are worked out afresh, to drop the
+     * rounding error sliding builds up
+     */
+    private static int restartChunks = 64;
+
+    /**
+     * Number of chunks read from the source at a time
+     */
+    private static int blockChunks = 8;
+
+    /**
+     * Energy of note j in chunk i is at energy[(i * notes.size()) + j]
+     */
+    private double [] energy;
+
+    /**
+     * Time, in seconds, of the start of each chunk
+     */
+    private double [] time;
+
+    private int numChunks;
+    private int hop;
+
+    /**
+     * Statistics of the energy grid, gathered as each chunk is measured:
+     * the histogram of every energy, and the mean and sum of squared
+     * differences from it of each chunk. The median and standard deviation
+     * are worked out from them once every chunk is in.
+     */
+    private LogPowerStatistics statistics;
+    private double [] rowMean;
+    private double [] rowM2;
+    private double medianEnergy;
+    private double stdDevEnergy;
+
+    /**
+     * Measure the note energies of a source, pulling samples as needed,
+     * with chunks a quarter chunk apart.
+     * Only a few chunks of samples are held at a time.
+     *
+     * @param source        Source of the input samples, in arbitrary units
+     * @param chunk_size    Number of input samples in a chunk. At least 8, and a multiple of 4.
+     * @param freq_min      Lowest note frequency to measure, in Hertz
+     * @param freq_max      Highest note frequency to measure, in Hertz
+     */
+    public NoteEnergyAnalyzer(SampleSource source, int chunk_size, double freq_min, double freq_max)
+    {
+        this(source, chunk_size, QuarterHop(chunk_size), freq_min, freq_max);
+    }
+
+    /**
+     * @param chunk_size    Number of input samples in a chunk
+     * @return              A quarter of the chunk size
+     */
+    private static int QuarterHop(int chunk_size)
+    {
+        if (chunk_size < 8 || chunk_size % 4 != 0)
+        {
+            throw new IllegalArgumentException("Chunk size must be a multiple of 4, at least 8.");
+        }
+        return chunk_size / 4;
+    }
+
+    /**
+     * Measure the note energies of a source, pulling samples as needed.
+     * Only a few chunks of samples are held at a time.
+     *
+     * @param source        Source of the input samples, in arbitrary units
+     * @param chunk_size    Number of input samples in a chunk. At least 8.
+     * @param hop_in        Number of samples from the start of one chunk to the next,
+     *                      from 1 up to the chunk size. Pass the waterfall's to line the chunks up.
+     * @param freq_min      Lowest note frequency to measure, in Hertz
+     * @param freq_max      Highest note frequency to measure, in Hertz. There must be
+     *                      a note from freq_min up to this, and below half the sample frequency.
+     */
+    public NoteEnergyAnalyzer(SampleSource source, int chunk_size, int hop_in, double freq_min, double freq_max)
+    {
+        if (chunk_size < 8)
+        {
+            throw new IllegalArgumentException("Chunk size must be at least 8.");
+        }
+        if (hop_in < 1 || hop_in > chunk_size)
+        {
+            throw new IllegalArgumentException("Hop must be from 1 sample up to the chunk size.");
+        }
+        hop = hop_in;
+        double fs = source.sampleFrequency();
+
+        notes = new ArrayList<MusicalNote>();
+        for (MusicalNote n : MusicalNote.allNotes)
+        {
+            // Above half the sample frequency a note would alias
+            if (n.Frequency() >= freq_min && n.Frequency() <= freq_max && n.Frequency() < fs / 2.0)
+            {
+                notes.add(n);
+            }
+        }
+        int num_notes = notes.size();
+        if (num_notes == 0)
+        {
+            throw new IllegalArgumentException("No notes to measure between the minimum and maximum frequency.");
+        }
+        coeff = new double[num_notes];
+        for (int j = 0; j < num_notes; j++)
+        {
+            coeff[j] = 2.0 * Math.cos((2.0 * Math.PI * notes.get(j).Frequency()) / fs);
+        }
+
+        turnRe = new double[num_notes];
+        turnIm = new double[num_notes];
+        arriveRe = new double[num_notes];
+        arriveIm = new double[num_notes];
+        phaseRe = new double[num_notes];
+        phaseIm = new double[num_notes];
+        for (int j = 0; j < num_notes; j++)
+        {
+            double w = (2.0 * Math.PI * notes.get(j).Frequency()) / fs;
+            turnRe[j] = Math.cos(w);
+            turnIm[j] = Math.sin(w);
+            arriveRe[j] = Math.cos(w * chunk_size);
+            arriveIm[j] = -Math.sin(w * chunk_size);
+            phaseRe[j] = Math.cos(w * (chunk_size - 1));
+            phaseIm[j] = -Math.sin(w * (chunk_size - 1));
+        }
+        valueRe = new double[num_notes];
+        valueIm = new double[num_notes];
+        sliding = hop < breakEven * chunk_size;
+
+        // Filter state for every note, updated together a sample at a time
+        double [] s1 = new double[num_notes];
+        double [] s2 = new double[num_notes];
+
+        int capacity = 64;
+        energy = new double[capacity * num_notes];
+        time = new double[capacity];
+        rowMean = new double[capacity];
+        rowM2 = new double[capacity];
+        statistics = new LogPowerStatistics(chunk_size);
+
+        // The chunk being measured, and the one before, which the samples
+        // leaving in the sliding update come from
+        double [] samples = new double[chunk_size];
+        double [] previous = new double[chunk_size];
+        ChunkStream chunks = new ChunkStream(source, chunk_size, hop, blockChunks);
+        while (chunks.Next())
+        {
+            int last = chunks.First() + chunks.Count();
+            if (last > capacity)
+            {
+                capacity = Math.max(2 * capacity, last);
+                energy = Arrays.copyOf(energy, capacity * num_notes);
+                time = Arrays.copyOf(time, capacity);
+                rowMean = Arrays.copyOf(rowMean, capacity);
+                rowM2 = Arrays.copyOf(rowM2, capacity);
+            }
+            for (int i = chunks.First(); i < last; i++)
+            {
+                chunks.CopyChunk(i, samples);
+                if (sliding && i % restartChunks != 0)
+                {
+                    SlideOneChunk(previous, samples);
+                } else {
+                    FilterOneChunk(samples, s1, s2);
+                }
+                RecordOneChunk(i, fs);
+                double [] tmp = previous;
+                previous = samples;
+                samples = tmp;
+            }
+        }
+        numChunks = chunks.NumChunks();
+        energy = Arrays.copyOf(energy, numChunks * num_notes);
+        time = Arrays.copyOf(time, numChunks);
+        rowMean = Arrays.copyOf(rowMean, numChunks);
+        rowM2 = Arrays.copyOf(rowM2, numChunks);
+        
+        stdDevEnergy = LogPowerStatistics.StdDev(rowMean, rowM2, numChunks, num_notes);
+        medianEnergy = statistics.ExactMedian(this::GetOneEnergy, numChunks, num_notes);
+    }
+
+    /**
+     * Helper to work out the values of one chunk afresh, running every
+     * Goertzel filter over all its samples.
+     *
+     * @param samples    The chunk's samples
+     * @param s1         Filter state, one per note. Overwritten.
+     * @param s2         Filter state, one per note. Overwritten.
+     */
+    private void FilterOneChunk(double [] samples, double [] s1, double [] s2)
+    {
+        int num_notes = coeff.length;
+        Arrays.fill(s1, 0.0);
+        Arrays.fill(s2, 0.0);
+        // Notes in the inner loop: the filters don't depend on each other,
+        // so the compiler can update several at once
+        for (int k = 0; k < samples.length; k++)
+        {
+            double x = samples[k];
+            for (int j = 0; j < num_notes; j++)
+            {
+                double s = x + (coeff[j] * s1[j]) - s2[j];
+                s2[j] = s1[j];
+                s1[j] = s;
+            }
+        }
+
+        // The filter leaves s1 - exp(-i w) s2, which is the value turned by exp(i w (chunk_size - 1))
+        for (int j = 0; j < num_notes; j++)
+        {
+            double re = s1[j] - (turnRe[j] * s2[j]);
+            double im = turnIm[j] * s2[j];
+            valueRe[j] = (re * phaseRe[j]) - (im * phaseIm[j]);
+            valueIm[j] = (re * phaseIm[j]) + (im * phaseRe[j]);
+        }
+    }
+
+    /**
+     * Helper to slide the values on from the chunk before to this one,
+     * a hop later. Moving on a sample takes away the sample leaving,
+     * adds the one arriving, turned to where it lands, and turns the
+     * lot: v' = (v - x_old + x_new exp(-i w chunk_size)) exp(i w).
+     * That's O(hop) work per note, rather than O(chunk_size).
+     *
+     * @param previous    The chunk before's samples
+     * @param samples     This chunk's samples
+     */
+    private void SlideOneChunk(double [] previous, double [] samples)
+    {
+        int num_notes = coeff.length;
+        int arriving = samples.length - hop;
+        for (int m = 0; m < hop; m++)
+        {
+            double x_old = previous[m];
+            double x_new = samples[arriving + m];
+            for (int j = 0; j < num_notes; j++)
+            {
+                double re = (valueRe[j] - x_old) + (x_new * arriveRe[j]);
+                double im = valueIm[j] + (x_new * arriveIm[j]);
+                valueRe[j] = (re * turnRe[j]) - (im * turnIm[j]);
+                valueIm[j] = (re * turnIm[j]) + (im * turnRe[j]);
+            }
+        }
+    }
+
+    /**
+     * Helper to record the energies of one chunk from the values, and
+     * gather its statistics.
+     *
+     * @param i     Chunk number
+     * @param fs    Sample frequency, in Hertz
+     */
+    private void RecordOneChunk(int i, double fs)
+    {
+        int num_notes = coeff.length;
+        time[i] = hop * (i / fs);
+
+        int base = i * num_notes;
+        double sum = 0.0;
+        for (int j = 0; j < num_notes; j++)
+        {
+            double magnitude = Math.sqrt((valueRe[j] * valueRe[j]) + (valueIm[j] * valueIm[j]));
+            energy[base + j] = Math.log10(magnitude + 2);
+            sum += energy[base + j];
+            statistics.Add(energy[base + j]);
+        }
+        double mean = sum / num_notes;
+        double m2 = 0.0;
+        for (int j = 0; j < num_notes; j++)
+        {
+            m2 += (energy[base + j] - mean) * (energy[base + j] - mean);
+        }
+        rowMean[i] = mean;
+        rowM2[i] = m2;
+    }
+
+    /**
+     * @return    Number of chunks in the energy grid
+     */
+    public int GetNumChunks()
+    {
+        return numChunks;
+    }
+
+    /**
+     * @return    The time scale for the energy grid
+     */
+    public double[] GetTime()
+    {
+        return time.clone();
+    }
+
+    /**
+     * @return    The notes being measured, lowest first
+     */
+    public List<MusicalNote> GetNotes()
+    {
+        return new ArrayList<MusicalNote>(notes);
+    }
+
+    /**
+     * Returns a copy of the energies of every note in one chunk.
+     *
+     * @param i    Index of the chunk
+     * @return     Energy of each note, in the order of GetNotes()
+     */
+    public double[] GetOneEnergy(int i)
+    {
+        int num_notes = coeff.length;
+        return Arrays.copyOfRange(energy, i * num_notes, (i + 1) * num_notes);
+    }
+
+    /**
+     * @param i      Index of the chunk
+     * @param out    Where the energy of each note goes, in the order of GetNotes()
+     */
+    public void GetOneEnergy(int i, double [] out)
+    {
+        int num_notes = coeff.length;
+        System.arraycopy(energy, i * num_notes, out, 0, num_notes);
+    }
+
+    /**
+     * Exact. Only the energies in the median's slice of the histogram
+     * gathered while measuring are gone over again, see LogPowerStatistics.
+     *
+     * @return    Median energy over the whole grid
+     */
+    public double GetMedianEnergy()
+    {
+        return medianEnergy;
+    }
+
+    /**
+     * @return    Standard deviation of the energy over the whole grid
+     */
+    public double GetStdDevEnergy()
+    {
+        return stdDevEnergy;
+    }
+
+    /**
+     * Detect notes the way WaterfallToGrid does: a note is playing when its energy
+     * is more than num_stddev standard deviations above the median.
+     *
+     * @param num_stddev    Threshold of note detection
+     * @return              Grid of the detected notes
+     */
+    public MusicalNoteGrid ToNoteGrid(double num_stddev)
+    {
+        MusicalNoteGrid grid = new MusicalNoteGrid(numChunks, time);
+        double threshold = GetMedianEnergy() + (num_stddev * GetStdDevEnergy());
+        int num_notes = coeff.length;
+        for (int i = 0; i < numChunks; i++)
+        {
+            for (int j = 0; j < num_notes; j++)
+            {
+                double e = energy[(i * num_notes) + j];
+                if (e > threshold)
+                {
+                    // Same amplitude scale as WaterfallToGrid
+                    grid.AddOneNote(notes.get(j).WithAmplitude(Math.pow(10, e - 3.0)), i);
+                }
+            }
+        }
+        return grid;
+    }
+
+}
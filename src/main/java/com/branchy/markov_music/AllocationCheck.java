@@ -0,0 +1,260 @@
+package main.java.com.branchy.markov_music;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import main.java.com.branchy.libmath.FastFourierTransform;
+import main.java.com.branchy.libmath.FftEngine;
+import main.java.com.branchy.libmath.FftEngines;
+import main.java.com.branchy.libmath.FftPlan;
+import main.java.com.branchy.libmath.FloatFftEngine;
+import main.java.com.branchy.libmath.PowerSpectrumWaterfall;
+import main.java.com.branchy.libmath.WindowFunction;
+
+/** Checks the per frame transform paths allocate nothing once warmed up.
+ * <p>
+ * Each check runs a path until the JIT has compiled it, then counts the
+ * bytes the thread allocates over many more frames, with the JVM's own
+ * per thread counter. FftPlan, every engine but the reference one, which
+ * copies by design, and the float engine are checked one transform at a
+ * time.
+ * <p>
+ * The waterfall is checked as a whole, in several configurations: a
+ * short and a long song are analyzed, and the difference in bytes is
+ * what the extra chunks cost. Taking away the spectra and the per chunk
+ * time and statistics, which the waterfall keeps on purpose, and the
+ * 32 bit codes the fixed point log spectra are held in until the note
+ * threshold is known, then let go, leaves whatever the frame loop throws
+ * away. That has to be zero, apart from a byte or so a frame of padding
+ * at the ends of the arrays.
+ * <p>
+ * Prints a line per check and exits non-zero if any fail.
+ * Needs a JVM whose ThreadMXBean counts allocations, as HotSpot's does.
+ * <p>
+ * Usage: AllocationCheck
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class AllocationCheck {
+
+    /**
+     * Transform size for the engine checks
+     */
+    private static int fftSize = 4096;
+
+    /**
+     * Calls to warm a path up with, then calls to measure
+     */
+    private static int warmupCalls = 20000;
+    private static int measuredCalls = 5000;
+
+    /**
+     * Waterfall runs to warm up with
+     */
+    private static int warmupRuns = 6;
+
+    /**
+     * Most bytes per frame the waterfall may leave, for array padding
+     */
+    private static double waterfallSlack = 1.0;
+
+    /**
+     * Sample frequency and lengths, in seconds, of the short and long songs
+     */
+    private static int sampleFrequency = 11025;
+    private static int shortSeconds = 4;
+    private static int longSeconds = 12;
+
+    /**
+     * Bytes the waterfall keeps for each chunk besides the spectra: time, median and spread
+     */
+    private static long bytesPerChunk = 3 * 8;
+
+    /**
+     * Counts this thread's allocations
+     */
+    private static com.sun.management.ThreadMXBean threads;
+
+    private static boolean passed = true;
+
+    /**
+     * One transform path, run a frame at a time
+     */
+    private interface Frame {
+        void Run(int r);
+    }
+
+    /**
+     * @param args    Not used
+     */
+    public static void main(String[] args)
+    {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+        {
+            System.err.println("This JVM doesn't count allocations per thread.");
+            System.exit(2);
+        }
+        threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported())
+        {
+            System.err.println("This JVM doesn't count allocations per thread.");
+            System.exit(2);
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        int n = fftSize;
+        Random rnd = new Random(1);
+        double [] data = new double[n + 2];
+        double [] out = new double[(n / 2) + 1];
+        FftPlan plan = FftPlan.ForSize(n);
+        CheckFrames("FftPlan.RealInPlace", r -> {
+            data[0] = r;
+            plan.RealInPlace(data, FastFourierTransform.FORWARD_TRANSFORM);
+        });
+        CheckFrames("FftPlan.ComplexInPlace", r -> {
+            data[0] = r;
+            plan.ComplexInPlace(data, FastFourierTransform.FORWARD_TRANSFORM);
+        });
+
+        int frames = 4;
+        int stride = n + 2;
+        double [] block = new double[(frames - 1) * stride + n + 2];
+        for (FftEngine engine : FftEngines.All())
+        {
+            if (engine.Name().equals("reference"))
+            {
+                continue;
+            }
+            CheckFrames(engine.Name() + ".RealInPlace", r -> {
+                data[0] = r;
+                engine.RealInPlace(data, n, FastFourierTransform.FORWARD_TRANSFORM);
+            });
+            CheckFrames(engine.Name() + ".RealForwardBatch", r -> {
+                block[0] = r;
+                engine.RealForwardBatch(block, n, frames, stride);
+            });
+            for (int k = 0; k < data.length; k++)
+            {
+                data[k] = rnd.nextGaussian();
+            }
+            CheckFrames(engine.Name() + ".LogMagnitude", r -> {
+                data[0] = r;
+                engine.LogMagnitude(data, out, out.length);
+            });
+        }
+
+        FloatFftEngine float_engine = new FloatFftEngine();
+        float [] data_float = new float[n + 2];
+        float [] block_float = new float[(frames - 1) * stride + n + 2];
+        CheckFrames("float.RealInPlace", r -> {
+            data_float[0] = r;
+            float_engine.RealInPlace(data_float, n, FastFourierTransform.FORWARD_TRANSFORM);
+        });
+        CheckFrames("float.RealForwardBatch", r -> {
+            block_float[0] = r;
+            float_engine.RealForwardBatch(block_float, n, frames, stride);
+        });
+        CheckFrames("float.LogMagnitude", r -> {
+            data_float[0] = r;
+            float_engine.LogMagnitude(data_float, 0, out, out.length);
+        });
+
+        short [] song_short = new short[shortSeconds * sampleFrequency];
+        short [] song_long = new short[longSeconds * sampleFrequency];
+        for (int k = 0; k < song_long.length; k++)
+        {
+            song_long[k] = (short)(4000 * Math.sin(k * 0.07) + 800 * rnd.nextGaussian());
+        }
+        System.arraycopy(song_long, 0, song_short, 0, song_short.length);
+        CheckWaterfall("waterfall DOUBLE", song_short, song_long, new PowerSpectrumWaterfall.Options());
+        CheckWaterfall("waterfall FLOAT", song_short, song_long,
+                new PowerSpectrumWaterfall.Options().SetPrecision(PowerSpectrumWaterfall.Precision.FLOAT));
+        CheckWaterfall("waterfall FIXED_16", song_short, song_long,
+                new PowerSpectrumWaterfall.Options().SetPrecision(PowerSpectrumWaterfall.Precision.FIXED_16));
+        CheckWaterfall("waterfall FIXED_16 threshold", song_short, song_long,
+                new PowerSpectrumWaterfall.Options().SetPrecision(PowerSpectrumWaterfall.Precision.FIXED_16).SetNoteThreshold(2.0));
+        CheckWaterfall("waterfall CONSTANT_Q", song_short, song_long,
+                new PowerSpectrumWaterfall.Options().SetLogScale(PowerSpectrumWaterfall.LogScale.CONSTANT_Q));
+        // A short hop makes the sliding DFT cheaper than a fresh transform per chunk
+        CheckWaterfall("waterfall sliding DFT", song_short, song_long,
+                new PowerSpectrumWaterfall.Options().SetHop(32));
+        CheckWaterfall("waterfall HANN", song_short, song_long,
+                new PowerSpectrumWaterfall.Options().SetWindow(WindowFunction.HANN));
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed)
+        {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return    Bytes this thread has allocated so far
+     */
+    private static long Allocated()
+    {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Warm a path up, then check it allocates nothing over many frames.
+     */
+    private static void CheckFrames(String name, Frame frame)
+    {
+        for (int r = 0; r < warmupCalls; r++)
+        {
+            frame.Run(r);
+        }
+        long before = Allocated();
+        for (int r = 0; r < measuredCalls; r++)
+        {
+            frame.Run(r);
+        }
+        long bytes = Allocated() - before;
+        Report(name, (double)bytes / measuredCalls, bytes == 0);
+    }
+
+    /**
+     * Warm a waterfall configuration up, then check its frame loop allocates
+     * nothing beyond what it keeps.
+     */
+    private static void CheckWaterfall(String name, short [] song_short, short [] song_long, PowerSpectrumWaterfall.Options options)
+    {
+        int chunk = 2048;
+        for (int r = 0; r < warmupRuns; r++)
+        {
+            Waterfall(song_short, chunk, options);
+            Waterfall(song_long, chunk, options);
+        }
+        long start = Allocated();
+        PowerSpectrumWaterfall psw_short = Waterfall(song_short, chunk, options);
+        long middle = Allocated();
+        PowerSpectrumWaterfall psw_long = Waterfall(song_long, chunk, options);
+        long end = Allocated();
+
+        int chunks = psw_long.GetNumChunks() - psw_short.GetNumChunks();
+        long kept = (psw_long.GetStorageBytes() - psw_short.GetStorageBytes()) + (bytesPerChunk * chunks);
+        if (psw_long.GetNoteThresholdTolerance() > 0.0)
+        {
+            kept += (long)Integer.BYTES * psw_long.GetSpectraLogSize() * chunks;
+        }
+        long extra = (end - middle) - (middle - start) - kept;
+        double per_frame = (double)extra / chunks;
+        Report(name, per_frame, per_frame < waterfallSlack);
+    }
+
+    private static PowerSpectrumWaterfall Waterfall(short [] song, int chunk, PowerSpectrumWaterfall.Options options)
+    {
+        return new PowerSpectrumWaterfall(song, sampleFrequency, chunk, 1280, 55.0, 3000.0, options);
+    }
+
+    private static void Report(String name, double bytes_per_frame, boolean ok)
+    {
+        System.out.println(String.format("%-28s %10.2f bytes/frame  %s", name, bytes_per_frame, ok ? "ok" : "FAIL"));
+        passed &= ok;
+    }
+
+}
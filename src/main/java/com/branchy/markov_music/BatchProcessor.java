@@ -0,0 +1,229 @@
+package main.java.com.branchy.markov_music;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import main.java.com.branchy.libdata.DataWriter;
+import main.java.com.branchy.libdata.LogWriter;
+import main.java.com.branchy.libmp3.PcmCache;
+
+/** Runs every audio file in a directory through MarkovMusic on a pool of threads.
+ * <p>
+ * Each input file gets its own output subdirectory with its own log,
+ * waterfall image, notes and output .wav. A file that fails is logged
+ * and recorded in the summary; the rest of the batch carries on.
+ * <p>
+ * The summary, one line per file plus the overall throughput, goes to
+ * summary.txt in the output root. The batch log goes to log.txt there.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class BatchProcessor {
+
+    /**
+     * Extensions of the input files to process
+     */
+    private static String [] audioExtensions = { ".mp3", ".wav" };
+
+    /**
+     * Outcome of processing one file
+     */
+    private static class Result {
+        String file_name;
+        boolean ok;
+        double audio_seconds;
+        double elapsed_seconds;
+        String error;
+    }
+
+    /**
+     * Processes one file in its own output directory
+     */
+    private static class FileTask implements Callable<Result> {
+        private File file_in;
+        private File dir_out;
+        private double start_seconds;
+        private double duration_seconds;
+        private PcmCache cache;
+
+        FileTask(File file_in, File dir_out, double start_seconds, double duration_seconds, PcmCache cache)
+        {
+            this.file_in = file_in;
+            this.dir_out = dir_out;
+            this.start_seconds = start_seconds;
+            this.duration_seconds = duration_seconds;
+            this.cache = cache;
+        }
+
+        @Override
+        public Result call()
+        {
+            Result r = new Result();
+            r.file_name = file_in.getName();
+            long start = System.nanoTime();
+            dir_out.mkdirs();
+            LogWriter file_log = new LogWriter(new File(dir_out, "log.txt").getPath());
+            try {
+                r.audio_seconds = MarkovMusic.ProcessFile(
+                        file_in.getPath(),
+                        new File(dir_out, "waterfall.jpg").getPath(),
+                        new File(dir_out, "notes.txt").getPath(),
+                        new File(dir_out, "output.wav").getPath(),
+                        start_seconds,
+                        duration_seconds,
+                        cache,
+                        file_log);
+                r.ok = true;
+            } catch (Throwable t) {
+                // Anything at all going wrong with one file
+                // shouldn't take down the rest of the batch
+                r.ok = false;
+                r.error = t.getClass().getSimpleName() + ": " + t.getMessage();
+                file_log.write(r.error);
+            }
+            file_log.close();
+            r.elapsed_seconds = (System.nanoTime() - start) / 1e9;
+            return r;
+        }
+    }
+
+    /**
+     * Process every audio file directly inside input_dir.
+     *
+     * @param input_dir           Directory of .mp3 and .wav files
+     * @param output_root         Directory to create the per-file output directories in
+     * @param num_threads         Number of files to process at once
+     * @param start_seconds       Where in each file to start reading, in seconds
+     * @param duration_seconds    Maximum number of seconds of each file to read
+     * @param pcm_cache_dir       Directory of the cache of decoded samples, shared by
+     *                            every file and run, or null to always decode
+     */
+    public static void Run(String input_dir, String output_root, int num_threads, double start_seconds, double duration_seconds, String pcm_cache_dir)
+    {
+        File root = new File(output_root);
+        root.mkdirs();
+        LogWriter log = new LogWriter(new File(root, "log.txt").getPath());
+
+        File [] files = new File(input_dir).listFiles((dir, name) -> IsAudioFile(name));
+        if (files == null)
+        {
+            log.write("Can't list input directory " + input_dir);
+            log.close();
+            return;
+        }
+        Arrays.sort(files);
+        num_threads = num_threads < 1 ? 1 : num_threads;
+        log.write("Processing " + files.length + " files from " + input_dir + " on " + num_threads + " threads");
+
+        // Problems with the cache are for the whole batch, not one file
+        PcmCache cache = MarkovMusic.OpenPcmCache(pcm_cache_dir, log);
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(num_threads);
+        List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        for (File f : files)
+        {
+            futures.add(pool.submit(new FileTask(f, new File(root, OutputDirName(f.getName())), start_seconds, duration_seconds, cache)));
+        }
+        pool.shutdown();
+
+        List<Result> results = new ArrayList<Result>();
+        for (int i = 0; i < futures.size(); i++)
+        {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.write("Interrupted waiting for " + files[i].getName());
+            } catch (ExecutionException e) {
+                // FileTask catches everything, so this shouldn't happen
+                log.write(files[i].getName() + ": " + e.getMessage());
+            }
+        }
+        double wall_seconds = (System.nanoTime() - start) / 1e9;
+
+        WriteSummary(new File(root, "summary.txt").getPath(), results, wall_seconds, log);
+        log.close();
+    }
+
+    /**
+     * Write the per-file results and the overall throughput.
+     *
+     * @param summary_file    Output file for the summary table
+     * @param results         Results of each file, in input order
+     * @param wall_seconds    Wall clock time for the whole batch
+     * @param log             Batch log, which also gets the totals
+     */
+    private static void WriteSummary(String summary_file, List<Result> results, double wall_seconds, LogWriter log)
+    {
+        DataWriter dw = new DataWriter(summary_file,
+                Arrays.asList("File", "Status", "AudioSeconds", "ProcessingSeconds", "Error"));
+        int ok = 0;
+        double audio_seconds = 0.0;
+        for (Result r : results)
+        {
+            if (r.ok)
+            {
+                ok += 1;
+                audio_seconds += r.audio_seconds;
+            } else {
+                log.write("Failed: " + r.file_name + ": " + r.error);
+            }
+            dw.WriteData(Arrays.asList(
+                    r.file_name,
+                    r.ok ? "ok" : "failed",
+                    String.format("%.2f", r.audio_seconds),
+                    String.format("%.2f", r.elapsed_seconds),
+                    r.ok ? "" : r.error));
+        }
+
+        double files_per_minute = wall_seconds > 0.0 ? (results.size() * 60.0) / wall_seconds : 0.0;
+        double audio_per_second = wall_seconds > 0.0 ? audio_seconds / wall_seconds : 0.0;
+        String totals = String.format(
+                "%d files, %d ok, %d failed in %.2f s: %.2f files/min, %.2f audio-seconds/s",
+                results.size(), ok, results.size() - ok, wall_seconds, files_per_minute, audio_per_second);
+        dw.write(totals);
+        dw.close();
+        log.write(totals);
+    }
+
+    /**
+     * @param name    File name
+     * @return        True if the file looks like something we can read
+     */
+    private static boolean IsAudioFile(String name)
+    {
+        String lower = name.toLowerCase();
+        for (String ext : audioExtensions)
+        {
+            if (lower.endsWith(ext))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Name of the output directory for an input file: the file name with
+     * the extension's dot replaced, so song.mp3 and song.wav don't collide.
+     *
+     * @param name    Input file name
+     * @return        Output directory name
+     */
+    private static String OutputDirName(String name)
+    {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot) + "_" + name.substring(dot + 1);
+    }
+
+}
@@ -1,18 +1,27 @@
 package main.java.com.branchy.markov_music;
 
 import java.awt.Color;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import main.java.com.branchy.libdata.DataWriter;
 import main.java.com.branchy.libdata.LogWriter;
 import main.java.com.branchy.libimage.RainbowColor;
+import main.java.com.branchy.libmath.Decimator;
 import main.java.com.branchy.libmath.FastFourierTransform;
 import main.java.com.branchy.libmath.PowerSpectrumWaterfall;
-import main.java.com.branchy.libmp3.Mp3Wrapper;
+import main.java.com.branchy.libmath.WindowFunction;
+import main.java.com.branchy.libmp3.CachedMp3SampleSource;
+import main.java.com.branchy.libmp3.Mp3SampleSource;
+import main.java.com.branchy.libmp3.PcmCache;
+import main.java.com.branchy.libmp3.SampleSource;
+import main.java.com.branchy.libmp3.WavReader;
 import main.java.com.branchy.libmp3.WavWrapper;
 import main.java.com.branchy.libnote.MusicalNoteGrid;
+import main.java.com.branchy.libnote.NoteEnergyAnalyzer;
 
-/** Given .mp3 input, create an output randomly based on the input via a Markov chain.
+/** Given .mp3 or .wav input, create an output randomly based on the input via a Markov chain.
  * <p>
  * Intermediate steps include:
  * - Calculate the power spectra over time for the input
@@ -30,7 +39,8 @@ import main.java.com.branchy.libnote.MusicalNoteGrid;
 
 public class MarkovMusic {
     
-    // TODO: process a whole input directory
+    // Default input and output when run without arguments.
+    // See main() for processing a whole input directory.
     private static String input_path = "D:\\data\\demo\\markov_music\\input\\";
     private static String output_path = "D:\\data\\demo\\markov_music\\output\\";
 
@@ -56,57 +66,268 @@ public class MarkovMusic {
     private static int num_freq_log = 1280; // 1280 - number of frequency bins in log space
     private static double freq_min = 55.0; // 110.0 - minimum frequency to look for
     private static double freq_max = 3000.0; // 2000.0 - maximum frequency to look for
+    private static double start_seconds = 0.0; // 0.0 - where in each input to start reading. Past the start of an .mp3 the frame index, kept next to the file, seeks there.
+    private static double duration_seconds = 360.0; // 360.0 - maximum number of seconds of each input to read
+    private static String pcm_cache_dir = null; // null - directory to keep decoded .mp3 samples in, so running again with other settings skips the decode. null decodes every time.
+    private static long pcm_cache_bytes = 4L << 30; // 4 GB - the least recently used decodes are deleted past this
     private static double num_stddev = 0.8;  // 1.5 - threshold for detecting notes: number of standard deviations above the mean
+    private static PowerSpectrumWaterfall.Precision precision = PowerSpectrumWaterfall.Precision.DOUBLE; // DOUBLE - FLOAT halves the memory for the spectra, FIXED_16 quarters it. See PrecisionReport.
+    private static PowerSpectrumWaterfall.LogScale log_scale = PowerSpectrumWaterfall.LogScale.REBIN; // REBIN - CONSTANT_Q gives every log frequency bin its own window
+    private static int hops_per_chunk = 4; // 4 - chunks start this many times per chunk. More gives finer timing for more work.
+    private static WindowFunction window = WindowFunction.RECTANGULAR; // RECTANGULAR - HANN, HAMMING and BLACKMAN_HARRIS leak less between bins, so a smaller chunkSize separates the same notes
+    private static boolean interpolate_empty_bins = false; // false - fill the lowest log bins, which no FFT bin falls in, with a straight line between their neighbours instead of a copy of the one below
+    private static int analysis_threads = 1; // 1 - threads working out one waterfall. BatchProcessor already runs a file per thread.
+    private static PowerSpectrumWaterfall.Storage storage = PowerSpectrumWaterfall.Storage.HEAP; // HEAP - OFF_HEAP keeps the spectra in direct buffers, for very long songs
+    private static boolean keep_linear_spectra = false; // false - nothing after the waterfall reads the linear spectra, only the log ones
+    private static boolean notes_only = false; // false - detect notes with a Goertzel filter per note instead of the waterfall. No waterfall image.
     
     private static double wavSampleRate = 44100.0; // 44100.0 - sample rate for the output wav file
 
     /**
-     * TODO: add command line arguments
-     * to take in a whole input directory of .mp3
-     * and generate a timestamped output directory
+     * With no arguments, process the single hard coded input file.
+     * <p>
+     * With arguments, process every audio file in a directory:
+     * input_directory output_root [num_threads [start_seconds duration_seconds [pcm_cache_dir]]]
+     * Each file gets its own subdirectory under output_root.
+     * num_threads defaults to the number of processors, and the window
+     * to read from each file and the cache of decoded samples to
+     * start_seconds, duration_seconds and pcm_cache_dir above.
      * @param args
      */
     public static void main(String[] args) {
-        log = new LogWriter(log_file);
-        
-        // Load up the mp3 data
-        Mp3Wrapper mp3 = new Mp3Wrapper(file_in, log, 360);
-        int len = mp3.size();
+        if (args.length >= 2)
+        {
+            int num_threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            double start = args.length > 4 ? Double.parseDouble(args[3]) : start_seconds;
+            double duration = args.length > 4 ? Double.parseDouble(args[4]) : duration_seconds;
+            String cache_dir = args.length > 5 ? args[5] : pcm_cache_dir;
+            BatchProcessor.Run(args[0], args[1], num_threads, start, duration, cache_dir);
+            return;
+        }
         
-        // Data for both channels of the mp3
-        short [] data = mp3.data_both();
+        log = new LogWriter(log_file);
+        try {
+            ProcessFile(file_in, image_file, notes_file, wav_file_out, start_seconds, duration_seconds, OpenPcmCache(pcm_cache_dir, log), log);
+        } catch (Exception ex)
+        {
+            log.write(ex.getMessage());
+        }
+        log.close();
+
+    }
+    
+    /**
+     * Run the whole pipeline on one input file.
+     * <p>
+     * Safe to call from several threads at once, as long as each call
+     * has its own output files and log.
+     * 
+     * @param file_name       Input .mp3 or .wav file
+     * @param image_out       Output waterfall .jpg
+     * @param notes_out       Output detected notes
+     * @param wav_out         Output .wav generated from the detected notes
+     * @param start           Where in the input to start reading, in seconds
+     * @param duration        Maximum number of seconds to read
+     * @param cache           Cache of decoded samples, or null to always decode
+     * @param file_log        Log writer for this file
+     * @return                Approximate number of seconds of audio processed
+     * @throws Exception      If the file couldn't be processed
+     */
+    static double ProcessFile(
+            String file_name,
+            String image_out,
+            String notes_out,
+            String wav_out,
+            double start,
+            double duration,
+            PcmCache cache,
+            LogWriter file_log) throws Exception
+    {
+        // Stream all channels of the input, mixed down to mono
+        SampleSource input = OpenInput(file_name, start, duration, cache, file_log);
         
         try {
-            // Construct the power spectra for this mp3
-            PowerSpectrumWaterfall psw = new PowerSpectrumWaterfall(
-                    data,
-                    mp3.sampleFrequency(),
-                    chunkSize,
-                    num_freq_log,
-                    freq_min,
-                    freq_max
-                    );
+            if (notes_only)
+            {
+                return ProcessNotesOnly(file_name, notes_out, wav_out, input);
+            }
+            PowerSpectrumWaterfall psw = Analyze(input, precision);
+            if (psw.GetNumChunks() < 2)
+            {
+                throw new IOException("No audio could be read from " + file_name);
+            }
 //            WaterfallTest(psw);
             // Write out a waterfall image
-            WaterfallImage wfi = new WaterfallImage(psw, 1, image_file, log);
+            WaterfallImage wfi = new WaterfallImage(psw, 1, image_out, file_log);
 
             // Do musical note detection
             MusicalNoteGrid mng = WaterfallToGrid.WaterfallToNoteGrid(psw, num_stddev);
             
             // Log the detected notes to file
-            mng.WriteNotes(notes_file);
+            mng.WriteNotes(notes_out);
             
             // Get the waveform generated by the detected notes
             double [] waveform = mng.GenerateWaveform(wavSampleRate);
             
             // Write the waveform to a .wav file
-            WavWrapper.WriteWav(wav_file_out, waveform);
-        } catch (Exception ex)
+            WavWrapper.WriteWav(wav_out, waveform);
+            
+            double [] time = psw.GetTime();
+            return time[time.length - 1];
+        } finally {
+            input.close();
+        }
+    }
+    
+    /**
+     * The rest of the pipeline when only the notes are wanted: measure the
+     * energy of each note directly, with no waterfall or image.
+     * 
+     * @param file_name    Input file name, for errors
+     * @param notes_out    Output detected notes
+     * @param wav_out      Output .wav generated from the detected notes
+     * @param input        Mono samples to analyze
+     * @return             Approximate number of seconds of audio processed
+     * @throws Exception   If the file couldn't be processed
+     */
+    private static double ProcessNotesOnly(
+            String file_name,
+            String notes_out,
+            String wav_out,
+            SampleSource input) throws Exception
+    {
+        NoteEnergyAnalyzer nea = AnalyzeNotes(input);
+        if (nea.GetNumChunks() < 2)
         {
-            log.write(ex.getMessage());
+            throw new IOException("No audio could be read from " + file_name);
         }
-        log.close();
-
+        MusicalNoteGrid mng = nea.ToNoteGrid(num_stddev);
+        mng.WriteNotes(notes_out);
+        WavWrapper.WriteWav(wav_out, mng.GenerateWaveform(wavSampleRate));
+        
+        double [] time = nea.GetTime();
+        return time[time.length - 1];
+    }
+    
+    /**
+     * Measure the energy of each note for an input as the samples are read,
+     * on the same chunks as Analyze().
+     * 
+     * @param input    Mono samples to analyze
+     * @return         The note energies
+     */
+    static NoteEnergyAnalyzer AnalyzeNotes(SampleSource input)
+    {
+        int factor = Decimator.ChooseFactor(input.sampleFrequency(), freq_max);
+        if (factor > chunkSize / 8)
+        {
+            factor = chunkSize / 8;
+        }
+        int chunk = chunkSize / factor;
+        return new NoteEnergyAnalyzer(
+                new Decimator(input, factor, freq_max),
+                chunk,
+                Hop(chunk),
+                freq_min,
+                freq_max
+                );
+    }
+    
+    /**
+     * @param chunk    Number of samples in a chunk, after downsampling
+     * @return         Number of samples from the start of one chunk to the next,
+     *                 for both the waterfall and the note energies
+     */
+    private static int Hop(int chunk)
+    {
+        return Math.max(1, chunk / hops_per_chunk);
+    }
+    
+    /**
+     * Construct the power spectra for an input as the samples are read.
+     * 
+     * @param input           Mono samples to analyze
+     * @param precision_in    Precision of the transforms and the stored spectra
+     * @return                The power spectra
+     */
+    static PowerSpectrumWaterfall Analyze(SampleSource input, PowerSpectrumWaterfall.Precision precision_in)
+    {
+        // Nothing above freq_max is used, so downsample first.
+        // Shrink the FFT by the same factor to keep the frequency resolution.
+        int factor = Decimator.ChooseFactor(input.sampleFrequency(), freq_max);
+        if (factor > chunkSize / 8)
+        {
+            factor = chunkSize / 8;
+        }
+        int chunk = chunkSize / factor;
+        ForkJoinPool pool = analysis_threads > 1 ? new ForkJoinPool(analysis_threads) : null;
+        try {
+            return new PowerSpectrumWaterfall(
+                    new Decimator(input, factor, freq_max),
+                    chunk,
+                    num_freq_log,
+                    freq_min,
+                    freq_max,
+                    new PowerSpectrumWaterfall.Options()
+                        .SetPrecision(precision_in)
+                        .SetLogScale(log_scale)
+                        .SetPool(pool)
+                        .SetStorage(storage)
+                        .SetKeepLinear(keep_linear_spectra)
+                        .SetHop(Hop(chunk))
+                        .SetWindow(window)
+                        .SetInterpolateEmptyBins(interpolate_empty_bins)
+                        .SetNoteThreshold(num_stddev)
+                    );
+        } finally {
+            if (pool != null)
+            {
+                pool.shutdown();
+            }
+        }
+    }
+    
+    /**
+     * @return    Threshold of note detection, in standard deviations above the median
+     */
+    static double NoteThreshold()
+    {
+        return num_stddev;
+    }
+    
+    /**
+     * Pick a reader for the input by its file extension.
+     * Uncompressed .wav files are read directly, anything else is decoded as .mp3,
+     * through the cache if there is one. A .wav is quicker to read than to look up.
+     * 
+     * @param file_name    Input file name
+     * @param start        Where in the input to start reading, in seconds
+     * @param duration     Maximum number of seconds to read
+     * @param cache        Cache of decoded samples, or null to always decode
+     * @param file_log     Log writer for this file
+     * @return             Mono sample source for the input
+     */
+    static SampleSource OpenInput(String file_name, double start, double duration, PcmCache cache, LogWriter file_log)
+    {
+        if (file_name.toLowerCase().endsWith(".wav"))
+        {
+            return new WavReader(file_name, file_log, start, duration);
+        }
+        if (cache != null)
+        {
+            return new CachedMp3SampleSource(file_name, file_log, start, duration, cache);
+        }
+        return new Mp3SampleSource(file_name, file_log, start, duration);
+    }
+    
+    /**
+     * @param cache_dir    Directory of the cache of decoded samples, or null for none
+     * @param cache_log    Log writer for problems with the cache
+     * @return             The cache, or null
+     */
+    static PcmCache OpenPcmCache(String cache_dir, LogWriter cache_log)
+    {
+        return cache_dir != null ? new PcmCache(cache_dir, pcm_cache_bytes, cache_log) : null;
     }
     
     /**
@@ -0,0 +1,279 @@
+package main.java.com.branchy.markov_music;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import main.java.com.branchy.libdata.DataWriter;
+import main.java.com.branchy.libdata.LogWriter;
+import main.java.com.branchy.libmath.PowerSpectrumWaterfall;
+import main.java.com.branchy.libmp3.SampleSource;
+import main.java.com.branchy.libnote.MusicalNote;
+
+/** Compares the reduced precision analysis paths with double, to show they detect the same notes.
+ * <p>
+ * Each signal goes through MarkovMusic's analysis in double, and again
+ * in each reduced precision: float, and 16 and 8 bit fixed point. Each
+ * reduced waterfall is compared with the double one cell by cell: how
+ * far apart the log powers are, how far apart the thresholds are, and
+ * how many note detections change. The signals are some made up
+ * reference songs, plus any audio files named on the command line.
+ * <p>
+ * No note cell can change sides of the threshold if its distance from the
+ * double threshold, the margin, is more than the largest change in a log
+ * power plus how far the threshold moved. ProvenSame says whether that
+ * holds, so the detections are the same by construction, not just on count.
+ * <p>
+ * The fixed point precisions have the same threshold as double, and put
+ * it halfway between two of their levels, so no log power can be coded
+ * to the other side of it. For them ProvenSame needs only the margin to
+ * be more than the rounding in holding a value as a 32 bit code until
+ * the threshold is known, see GetNoteThresholdTolerance(), plus the
+ * rounding in coding it, which is taken to be a millionth of a step.
+ * OnMidpoint says whether that's the case. Their log powers are still
+ * off by up to half a step plus that tolerance, ErrorBound, which for
+ * FIXED_8 is enough to see in the image and the note amplitudes: FIXED_8
+ * is lossy, and only the detections are kept.
+ * <p>
+ * Usage: PrecisionReport report_file [audio files...]
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class PrecisionReport {
+
+    /**
+     * Sample frequency of the reference signals, in Hertz
+     */
+    private static int sampleFrequency = 44100;
+
+    /**
+     * Length of each reference signal, in seconds
+     */
+    private static int referenceSeconds = 60;
+
+    /**
+     * Precisions compared with double
+     */
+    private static PowerSpectrumWaterfall.Precision [] reduced = {
+        PowerSpectrumWaterfall.Precision.FLOAT,
+        PowerSpectrumWaterfall.Precision.FIXED_16,
+        PowerSpectrumWaterfall.Precision.FIXED_8
+    };
+
+    /**
+     * Plays back a fixed array of samples
+     */
+    private static class ArraySource implements SampleSource {
+        private short [] samples;
+        private int position;
+
+        ArraySource(short [] samples_in)
+        {
+            samples = samples_in;
+        }
+
+        @Override
+        public int sampleFrequency()
+        {
+            return sampleFrequency;
+        }
+
+        @Override
+        public int read(short [] buffer, int offset, int len)
+        {
+            if (position >= samples.length)
+            {
+                return -1;
+            }
+            int n = Math.min(len, samples.length - position);
+            System.arraycopy(samples, position, buffer, offset, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    /**
+     * @param args    report_file [audio files...]
+     */
+    public static void main(String[] args)
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: PrecisionReport report_file [audio files...]");
+            return;
+        }
+        DataWriter report = new DataWriter(args[0], Arrays.asList(
+                "Signal", "Precision", "Chunks", "DoubleBytes", "ReducedBytes", "MaxLogPowerError", "ErrorBound",
+                "MedianError", "StdDevError", "ThresholdShift", "ThresholdMargin", "OnMidpoint", "ProvenSame",
+                "DoubleNotes", "ReducedNotes", "ChangedNotes"));
+        LogWriter log = new LogWriter(args[0] + ".log");
+
+        Random rnd = new Random(1);
+        Compare(report, "chords", Chords(rnd, 0));
+        Compare(report, "chords+noise", Chords(rnd, 2000));
+        Compare(report, "sweep", Sweep());
+        for (int i = 1; i < args.length; i++)
+        {
+            try {
+                PowerSpectrumWaterfall psw_double = MarkovMusic.Analyze(
+                        MarkovMusic.OpenInput(args[i], 0.0, 360.0, null, log), PowerSpectrumWaterfall.Precision.DOUBLE);
+                for (PowerSpectrumWaterfall.Precision p : reduced)
+                {
+                    PowerSpectrumWaterfall psw_reduced = MarkovMusic.Analyze(MarkovMusic.OpenInput(args[i], 0.0, 360.0, null, log), p);
+                    report.write(Compare(args[i], psw_double, psw_reduced));
+                }
+            } catch (Exception ex)
+            {
+                log.write(args[i] + ": " + ex.getMessage());
+            }
+        }
+        report.close();
+        log.close();
+    }
+
+    /**
+     * Run one reference signal through every precision and report each reduced one against double.
+     */
+    private static void Compare(DataWriter report, String name, short [] samples)
+    {
+        PowerSpectrumWaterfall psw_double = MarkovMusic.Analyze(new ArraySource(samples), PowerSpectrumWaterfall.Precision.DOUBLE);
+        for (PowerSpectrumWaterfall.Precision p : reduced)
+        {
+            report.write(Compare(name, psw_double, MarkovMusic.Analyze(new ArraySource(samples), p)));
+        }
+    }
+
+    /**
+     * Compare two waterfalls of the same signal, with the same test WaterfallToGrid uses for notes.
+     *
+     * @return    One line of the report
+     */
+    private static String Compare(String name, PowerSpectrumWaterfall psw_double, PowerSpectrumWaterfall psw_reduced)
+    {
+        double num_stddev = MarkovMusic.NoteThreshold();
+        double threshold_double = psw_double.GetMedianLogPower() + (num_stddev * psw_double.GetStdDevLogPower());
+        double threshold_reduced = psw_reduced.GetMedianLogPower() + (num_stddev * psw_reduced.GetStdDevLogPower());
+
+        // Which log frequency bins are close enough to a note to count
+        double [] freq = psw_double.GetLogFrequency();
+        boolean [] is_note = new boolean[freq.length];
+        for (int j = 0; j < freq.length; j++)
+        {
+            is_note[j] = MusicalNote.LookupNote(Math.pow(10, freq[j])) != null;
+        }
+
+        double max_error = 0.0;
+        // Smallest distance of a double path note cell from its threshold
+        double margin = Double.MAX_VALUE;
+        int notes_double = 0;
+        int notes_reduced = 0;
+        int changed = 0;
+        double [] row_double = new double[freq.length];
+        double [] row_reduced = new double[freq.length];
+        for (int i = 0; i < psw_double.GetNumChunks(); i++)
+        {
+            psw_double.GetOneLogSpectra(i, row_double);
+            psw_reduced.GetOneLogSpectra(i, row_reduced);
+            for (int j = 0; j < row_double.length; j++)
+            {
+                max_error = Math.max(max_error, Math.abs(row_double[j] - row_reduced[j]));
+                if (!is_note[j])
+                {
+                    continue;
+                }
+                margin = Math.min(margin, Math.abs(row_double[j] - threshold_double));
+                boolean note_double = row_double[j] > threshold_double;
+                boolean note_reduced = row_reduced[j] > threshold_reduced;
+                notes_double += note_double ? 1 : 0;
+                notes_reduced += note_reduced ? 1 : 0;
+                changed += note_double != note_reduced ? 1 : 0;
+            }
+        }
+
+        // A note cell within max_error of its value, against a threshold
+        // within shift of its own, can only change sides inside the margin
+        double shift = Math.abs(threshold_double - threshold_reduced);
+        // Half a step, and the 32 bit codes held before it, are the most
+        // fixed point storage adds to the error
+        double step = psw_reduced.GetLogPowerStep();
+        double tolerance = psw_reduced.GetNoteThresholdTolerance();
+        // Or, with the same threshold halfway between two levels, a note
+        // cell can only be coded to the other side of it by rounding
+        boolean on_midpoint = shift == 0.0 && psw_reduced.GetNoteThreshold() == num_stddev;
+        boolean proven = margin > max_error + shift || (on_midpoint && margin > tolerance + (step * 1e-6));
+
+        return DataWriter.join(Arrays.asList(
+                name,
+                psw_reduced.GetPrecision().toString(),
+                Integer.toString(psw_double.GetNumChunks()),
+                Long.toString(psw_double.GetStorageBytes()),
+                Long.toString(psw_reduced.GetStorageBytes()),
+                String.format("%.3e", max_error),
+                step > 0.0 ? String.format("%.3e", (step / 2.0) + tolerance) : "-",
+                String.format("%.3e", Math.abs(psw_double.GetMedianLogPower() - psw_reduced.GetMedianLogPower())),
+                String.format("%.3e", Math.abs(psw_double.GetStdDevLogPower() - psw_reduced.GetStdDevLogPower())),
+                String.format("%.3e", shift),
+                String.format("%.3e", margin),
+                Boolean.toString(on_midpoint),
+                Boolean.toString(proven),
+                Integer.toString(notes_double),
+                Integer.toString(notes_reduced),
+                Integer.toString(changed)), "\t");
+    }
+
+    /**
+     * @param rnd      Picks the notes and the noise
+     * @param noise    Amplitude of white noise to add
+     * @return         Three note chords on the equal tempered scale, a new one every half second
+     */
+    private static short [] Chords(Random rnd, double noise)
+    {
+        short [] samples = new short[referenceSeconds * sampleFrequency];
+        int chord_length = sampleFrequency / 2;
+        double [] freqs = new double[3];
+        for (int start = 0; start < samples.length; start += chord_length)
+        {
+            for (int k = 0; k < freqs.length; k++)
+            {
+                // A1 to about F#7
+                freqs[k] = 55.0 * Math.pow(2.0, rnd.nextInt(70) / 12.0);
+            }
+            for (int n = start; n < Math.min(samples.length, start + chord_length); n++)
+            {
+                double t = (double)n / sampleFrequency;
+                double v = noise * rnd.nextGaussian();
+                for (double f : freqs)
+                {
+                    v += 6000.0 * Math.sin(2.0 * Math.PI * f * t);
+                }
+                samples[n] = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(v)));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * @return    A tone gliding from 55 Hz to 3 kHz, evenly in log frequency
+     */
+    private static short [] Sweep()
+    {
+        short [] samples = new short[referenceSeconds * sampleFrequency];
+        double rate = Math.log(3000.0 / 55.0) / referenceSeconds;
+        for (int n = 0; n < samples.length; n++)
+        {
+            double t = (double)n / sampleFrequency;
+            // Phase is the integral of 55 exp(rate t)
+            double phase = 2.0 * Math.PI * 55.0 * (Math.exp(rate * t) - 1.0) / rate;
+            samples[n] = (short)Math.round(16000.0 * Math.sin(phase));
+        }
+        return samples;
+    }
+
+}
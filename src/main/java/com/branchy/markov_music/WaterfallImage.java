@@ -207,7 +207,7 @@ public class WaterfallImage {
      * Populate the grid from the input power spectra waterfall
      */
     private void PopulateGrid() {
-        double [] oneCol = null;
+        double [] oneCol = new double[psw.GetSpectraLogSize()];
         // Taking the max and min works ok, but does not highlight the dynamic range well
 //        double delta = psw.GetMaxLogPower() - psw.GetMinLogPower();
 //        double min = psw.GetMinLogPower();
@@ -220,7 +220,7 @@ public class WaterfallImage {
         for (int gcol = 0; gcol < width; gcol++)
         {
             // Grab the log spectra for this time chunk
-            oneCol = psw.GetOneLogSpectra(gcol);
+            psw.GetOneLogSpectra(gcol, oneCol);
             for (int grow = 0; grow < height; grow++)
             {
                 // Normalize power to range [0, 1] -> subtract min and divide by delta
@@ -35,10 +35,11 @@ public class WaterfallToGrid {
         // The array of frequency values in this waterfall. Needed to look up notes.
         double [] freq = psw.GetLogFrequency();
         
+        // A single power spectra from the waterfall, reused for every chunk
+        double [] tmp = new double[psw.GetSpectraLogSize()];
         for (int i = 0; i < psw.GetNumChunks(); i++)
         {
-            // A single power spectra from the waterfall
-            double [] tmp = psw.GetOneLogSpectra(i);
+            psw.GetOneLogSpectra(i, tmp);
 
             for (int j = 0; j < tmp.length; j++)
             {
@@ -51,14 +52,15 @@ public class WaterfallToGrid {
                     {
                         // This note has passed the frequency test
                         // Initialize the note amplitude to zero
-                        note.SetAmplitude(0.0);
+                        double amplitude = 0.0;
                         if (tmp[j] > 0.0)
                         {
                             // Note amplitude should switch back to linear space from log space
                             // Scale back the PSD to create a more human readable amplitude number
-                            note.SetAmplitude(Math.pow(10, (tmp[j] - 3.0)));
+                            amplitude = Math.pow(10, (tmp[j] - 3.0));
                         }
-                        noteGrid.AddOneNote(note, i);
+                        // The looked up note is shared, so record a copy
+                        noteGrid.AddOneNote(note.WithAmplitude(amplitude), i);
                     }
                 }
             }
@@ -0,0 +1,441 @@
+package main.java.com.branchy.libmath;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** Radix-2 transforms with several butterflies per instruction, using the JDK Vector API.
+ * <p>
+ * The interleaved (re, im) input is split into separate real and imaginary
+ * arrays, bit reversing on the way, so that a stage can load a run of
+ * consecutive butterflies into one vector of reals and one of imaginaries.
+ * The lane count is whatever the CPU prefers: 4 doubles with AVX2, 8 with
+ * AVX-512. Stages whose butterflies are closer together than that are done
+ * one at a time. The rest go two at a time as radix-4 passes, like
+ * Radix4FftEngine, with a single radix-2 stage first if the count is odd.
+ * <p>
+ * Needs the jdk.incubator.vector module, both to compile and to run
+ * (--add-modules jdk.incubator.vector), so it lives in its own source
+ * tree, src_vector, and is built separately from the rest. See README.txt.
+ * FftEngines only loads this class when the module is there and the class
+ * was built, and falls back to radix4 otherwise.
+ *
+ * @author      Justin Libby <justin.libby @ gmail.com>
+ * @version     1.0
+ * @since       2026-10-16
+ */
+
+public class VectorFftEngine implements FftEngine {
+
+    /**
+     * Preferred vector shape on this CPU
+     */
+    private static final VectorSpecies<Double> species = DoubleVector.SPECIES_PREFERRED;
+    private static final int lanes = species.length();
+
+    /**
+     * Gather maps picking the real and imaginary parts out of interleaved pairs
+     */
+    private static final int [] gather_pairs = new int[lanes];
+    static {
+        for (int k = 0; k < lanes; k++)
+        {
+            gather_pairs[k] = 2 * k;
+        }
+    }
+
+    /**
+     * Tables for one size of complex transform
+     */
+    private static class Tables {
+        /**
+         * Where each complex value goes after bit reversal
+         */
+        final int [] reverse;
+
+        /**
+         * For the stage with butterflies h apart: cos and sin of pi k / h, k < h.
+         * Indexed by stage, the stage with h = 1 first.
+         */
+        final double [][] cos_table;
+        final double [][] sin_table;
+
+        /**
+         * For a radix-4 pass starting at the stage with butterflies h apart:
+         * cos and sin of 2 pi m k / (4 h), k < h, for m = 1, 2, 3, in that order.
+         * Only filled in for the stages a pass can start at.
+         */
+        final double [][][] quad_table;
+
+        Tables(int nn)
+        {
+            int stages = Integer.numberOfTrailingZeros(nn);
+            reverse = new int[nn];
+            for (int i = 0; i < nn; i++)
+            {
+                reverse[i] = Integer.reverse(i) >>> (32 - stages);
+            }
+            cos_table = new double[stages][];
+            sin_table = new double[stages][];
+            for (int s = 0, h = 1; s < stages; s++, h *= 2)
+            {
+                cos_table[s] = new double[h];
+                sin_table[s] = new double[h];
+                for (int k = 0; k < h; k++)
+                {
+                    double theta = (Math.PI * k) / h;
+                    cos_table[s][k] = Math.cos(theta);
+                    sin_table[s][k] = Math.sin(theta);
+                }
+            }
+            quad_table = new double[stages][][];
+            for (int s = FirstQuadStage(stages), h = 1 << s; s + 1 < stages; s += 2, h *= 4)
+            {
+                double [][] tw = new double[6][h];
+                for (int k = 0; k < h; k++)
+                {
+                    for (int m = 1; m <= 3; m++)
+                    {
+                        double theta = (2.0 * Math.PI * m * k) / (4 * h);
+                        tw[2 * (m - 1)][k] = Math.cos(theta);
+                        tw[(2 * (m - 1)) + 1][k] = Math.sin(theta);
+                    }
+                }
+                quad_table[s] = tw;
+            }
+        }
+    }
+
+    /**
+     * Split real and imaginary work arrays, one pair per thread.
+     * They only grow, so after the first transform of a size nothing is allocated.
+     */
+    private static class Scratch {
+        double [] re = new double[0];
+        double [] im = new double[0];
+    }
+
+    /**
+     * One set of tables per complex transform size, shared by everyone,
+     * at the size's power of two so looking them up doesn't box the size
+     */
+    private static final AtomicReferenceArray<Tables> tables = new AtomicReferenceArray<Tables>(32);
+
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    @Override
+    public String Name()
+    {
+        return "vector";
+    }
+
+    /**
+     * @return    Number of doubles in one vector on this CPU
+     */
+    public static int Lanes()
+    {
+        return lanes;
+    }
+
+    @Override
+    public void ComplexInPlace(double [] data, int n, int isign)
+    {
+        // Checks the size for us
+        FftPlan.ForSize(n);
+        if (data.length < n)
+        {
+            throw new IllegalArgumentException("Input data must be an array of length " + n + ".");
+        }
+        Transform(data, n, 1, 0, isign);
+    }
+
+    /**
+     * Complex transforms of one or more frames.
+     * The frames sit one after another in the split arrays, and every
+     * block a stage works on is inside one frame, so each stage can
+     * sweep straight across the whole batch.
+     *
+     * @param data      The frames, as (re, im) pairs
+     * @param n         Number of doubles in one frame's transform
+     * @param frames    Number of frames
+     * @param stride    Distance from the start of one frame to the next
+     * @param isign     Direction of the transform
+     */
+    private static void Transform(double [] data, int n, int frames, int stride, int isign)
+    {
+        int nn = n / 2;
+        int total = frames * nn;
+        int k = Integer.numberOfTrailingZeros(nn);
+        Tables t = tables.get(k);
+        if (t == null)
+        {
+            synchronized (tables)
+            {
+                t = tables.get(k);
+                if (t == null)
+                {
+                    t = new Tables(nn);
+                    tables.set(k, t);
+                }
+            }
+        }
+        Scratch s = scratch.get();
+        if (s.re.length < total)
+        {
+            s.re = new double[total];
+            s.im = new double[total];
+        }
+        double [] re = s.re;
+        double [] im = s.im;
+
+        for (int f = 0; f < frames; f++)
+        {
+            int off = f * stride;
+            int base = f * nn;
+            for (int i = 0; i < nn; i++)
+            {
+                int j = base + t.reverse[i];
+                re[j] = data[off + (2 * i)];
+                im[j] = data[off + (2 * i) + 1];
+            }
+        }
+
+        int stages = Integer.numberOfTrailingZeros(nn);
+        int first_quad = FirstQuadStage(stages);
+        int stage = 0;
+        for (int h = 1; stage < first_quad; stage++, h *= 2)
+        {
+            if (h < lanes)
+            {
+                ScalarStage(re, im, total, h, t.cos_table[stage], t.sin_table[stage], isign);
+            } else {
+                VectorStage(re, im, total, h, t.cos_table[stage], t.sin_table[stage], isign);
+            }
+        }
+        for (int h = 1 << stage; stage < stages; stage += 2, h *= 4)
+        {
+            QuadStage(re, im, total, h, t.quad_table[stage], isign);
+        }
+
+        for (int f = 0; f < frames; f++)
+        {
+            int off = f * stride;
+            int base = f * nn;
+            for (int i = 0; i < nn; i++)
+            {
+                data[off + (2 * i)] = re[base + i];
+                data[off + (2 * i) + 1] = im[base + i];
+            }
+        }
+    }
+
+    /**
+     * @param stages    Number of radix-2 stages in the transform
+     * @return          The first stage done as part of a radix-4 pass. The ones before
+     *                  it are radix-2: the narrow ones, and one more if needed to
+     *                  leave an even number.
+     */
+    private static int FirstQuadStage(int stages)
+    {
+        int narrow = Math.min(stages, Integer.numberOfTrailingZeros(lanes));
+        return narrow + ((stages - narrow) % 2);
+    }
+
+    /**
+     * One radix-2 stage, a butterfly at a time, over total complex values.
+     */
+    private static void ScalarStage(double [] re, double [] im, int total, int h, double [] cos, double [] sin, int isign)
+    {
+        for (int base = 0; base < total; base += 2 * h)
+        {
+            for (int k = 0; k < h; k++)
+            {
+                int a = base + k;
+                int b = a + h;
+                double wr = cos[k];
+                double wi = isign * sin[k];
+                double tr = (wr * re[b]) - (wi * im[b]);
+                double ti = (wr * im[b]) + (wi * re[b]);
+                re[b] = re[a] - tr;
+                im[b] = im[a] - ti;
+                re[a] += tr;
+                im[a] += ti;
+            }
+        }
+    }
+
+    /**
+     * One radix-2 stage, a vector of butterflies at a time. h is a multiple of the lane count.
+     */
+    private static void VectorStage(double [] re, double [] im, int total, int h, double [] cos, double [] sin, int isign)
+    {
+        for (int base = 0; base < total; base += 2 * h)
+        {
+            for (int k = 0; k < h; k += lanes)
+            {
+                int a = base + k;
+                int b = a + h;
+                DoubleVector wr = DoubleVector.fromArray(species, cos, k);
+                DoubleVector wi = DoubleVector.fromArray(species, sin, k);
+                if (isign < 0)
+                {
+                    wi = wi.neg();
+                }
+                DoubleVector br = DoubleVector.fromArray(species, re, b);
+                DoubleVector bi = DoubleVector.fromArray(species, im, b);
+                DoubleVector tr = wr.mul(br).sub(wi.mul(bi));
+                DoubleVector ti = wr.mul(bi).add(wi.mul(br));
+                DoubleVector ar = DoubleVector.fromArray(species, re, a);
+                DoubleVector ai = DoubleVector.fromArray(species, im, a);
+                ar.sub(tr).intoArray(re, b);
+                ai.sub(ti).intoArray(im, b);
+                ar.add(tr).intoArray(re, a);
+                ai.add(ti).intoArray(im, a);
+            }
+        }
+    }
+
+    /**
+     * Two stages as one radix-4 pass, a vector of butterflies at a time.
+     * h, the distance between the four points of a butterfly, is a multiple of the lane count.
+     */
+    private static void QuadStage(double [] re, double [] im, int total, int h, double [][] tw, int isign)
+    {
+        for (int base = 0; base < total; base += 4 * h)
+        {
+            for (int k = 0; k < h; k += lanes)
+            {
+                int i0 = base + k;
+                int i1 = i0 + h;
+                int i2 = i1 + h;
+                int i3 = i2 + h;
+
+                DoubleVector w1r = DoubleVector.fromArray(species, tw[0], k);
+                DoubleVector w1i = DoubleVector.fromArray(species, tw[1], k);
+                DoubleVector w2r = DoubleVector.fromArray(species, tw[2], k);
+                DoubleVector w2i = DoubleVector.fromArray(species, tw[3], k);
+                DoubleVector w3r = DoubleVector.fromArray(species, tw[4], k);
+                DoubleVector w3i = DoubleVector.fromArray(species, tw[5], k);
+                if (isign < 0)
+                {
+                    w1i = w1i.neg();
+                    w2i = w2i.neg();
+                    w3i = w3i.neg();
+                }
+
+                // After bit reversal, the point at i1 belongs with the
+                // double angle twiddle and the one at i2 with the single
+                DoubleVector ar = DoubleVector.fromArray(species, re, i0);
+                DoubleVector ai = DoubleVector.fromArray(species, im, i0);
+                DoubleVector xr = DoubleVector.fromArray(species, re, i1);
+                DoubleVector xi = DoubleVector.fromArray(species, im, i1);
+                DoubleVector br = w2r.mul(xr).sub(w2i.mul(xi));
+                DoubleVector bi = w2r.mul(xi).add(w2i.mul(xr));
+                xr = DoubleVector.fromArray(species, re, i2);
+                xi = DoubleVector.fromArray(species, im, i2);
+                DoubleVector cr = w1r.mul(xr).sub(w1i.mul(xi));
+                DoubleVector ci = w1r.mul(xi).add(w1i.mul(xr));
+                xr = DoubleVector.fromArray(species, re, i3);
+                xi = DoubleVector.fromArray(species, im, i3);
+                DoubleVector dr = w3r.mul(xr).sub(w3i.mul(xi));
+                DoubleVector di = w3r.mul(xi).add(w3i.mul(xr));
+
+                DoubleVector s0r = ar.add(br);
+                DoubleVector s0i = ai.add(bi);
+                DoubleVector s1r = ar.sub(br);
+                DoubleVector s1i = ai.sub(bi);
+                DoubleVector s2r = cr.add(dr);
+                DoubleVector s2i = ci.add(di);
+                // (c - d) rotated a quarter turn in the direction of the transform
+                DoubleVector s3r = ci.sub(di);
+                DoubleVector s3i = cr.sub(dr);
+                if (isign < 0)
+                {
+                    s3i = s3i.neg();
+                } else {
+                    s3r = s3r.neg();
+                }
+
+                s0r.add(s2r).intoArray(re, i0);
+                s0i.add(s2i).intoArray(im, i0);
+                s0r.sub(s2r).intoArray(re, i2);
+                s0i.sub(s2i).intoArray(im, i2);
+                s1r.add(s3r).intoArray(re, i1);
+                s1i.add(s3i).intoArray(im, i1);
+                s1r.sub(s3r).intoArray(re, i3);
+                s1i.sub(s3i).intoArray(im, i3);
+            }
+        }
+    }
+
+    @Override
+    public void RealInPlace(double [] data, int n, int isign)
+    {
+        FftPlan plan = FftPlan.ForSize(n);
+        if (data.length < n + 2)
+        {
+            throw new IllegalArgumentException("Input data must be an array of length " + (n + 2) + ".");
+        }
+        if (isign == FastFourierTransform.FORWARD_TRANSFORM)
+        {
+            Transform(data, n, 1, 0, isign);
+            plan.Untangle(data, 0, isign);
+            plan.PackEnds(data, 0);
+            return;
+        }
+
+        plan.UnpackEnds(data, 0);
+        plan.Untangle(data, 0, isign);
+        Transform(data, n, 1, 0, isign);
+        data[n] = 0.0;
+        data[n + 1] = 0.0;
+    }
+
+    @Override
+    public void RealForwardBatch(double [] block, int n, int frames, int stride)
+    {
+        FftPlan plan = FftPlan.ForSize(n);
+        FftEngines.CheckBatch(block, n, frames, stride);
+        int isign = FastFourierTransform.FORWARD_TRANSFORM;
+        Transform(block, n, frames, stride, isign);
+        for (int f = 0; f < frames; f++)
+        {
+            plan.Untangle(block, f * stride, isign);
+            plan.PackEnds(block, f * stride);
+        }
+    }
+
+    @Override
+    public void LogMagnitude(double [] spectrum, int offset, double [] out, int out_offset, int bins)
+    {
+        int j = 0;
+        // Whole vectors while they fit, then the rest one at a time
+        int vector_bins = Math.min(bins, (spectrum.length - offset) / 2) - lanes + 1;
+        for (; j < vector_bins; j += lanes)
+        {
+            int a = offset + (2 * j);
+            DoubleVector real = DoubleVector.fromArray(species, spectrum, a, gather_pairs, 0);
+            DoubleVector imag = DoubleVector.fromArray(species, spectrum, a + 1, gather_pairs, 0);
+            real.mul(real).add(imag.mul(imag))
+                .lanewise(VectorOperators.SQRT)
+                .add(2.0)
+                .intoArray(out, out_offset + j);
+        }
+        // The lanewise LOG10 isn't used: its last bit can depend on whether
+        // the JIT has compiled it yet, so the same spectrum could give
+        // different results at different times. Math.log10() is the same everywhere.
+        for (int k = 0; k < j; k++)
+        {
+            out[out_offset + k] = Math.log10(out[out_offset + k]);
+        }
+        for (; j < bins; j++)
+        {
+            double real = spectrum[offset + (j * 2)];
+            double imag = spectrum[offset + (j * 2) + 1];
+            out[out_offset + j] = Math.log10(Math.sqrt((real * real) + (imag * imag)) + 2);
+        }
+    }
+
+}